@@ -0,0 +1,506 @@
+package com.knight.core.audit.envers;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Envers审计记录异步批量写入器，配合AsyncBatchAuditStrategy使用，audit_async_enabled=true时启用
+ * <p>
+ * 业务事务提交后的审计记录进入有界缓冲区，后台线程每次取出最多batchSize条在独立事务中写入审计表，
+ * 依赖hibernate.jdbc.batch_size合并为JDBC批量插入；写入数据库失败的记录追加写入本地溢出文件并同步刷盘，
+ * 缓冲区空闲时再回放溢出文件写入数据库。回放时已写入过的记录因主键冲突被跳过，因此重复回放不会产生重复数据
+ * <p>
+ * 缓冲区已满时记录进入同样容量的溢出队列，由独立的溢出线程成组写入溢出文件，业务线程不做磁盘刷盘；
+ * 溢出队列也满时业务线程阻塞等待，对业务施加背压
+ * <p>
+ * 主键冲突以外的约束冲突（如版本记录已不存在导致的外键冲突、非空约束冲突）回放也无法成功，
+ * 这类记录写入.rejected文件留待人工处理，不参与回放
+ * <p>
+ * 注意：缓冲区中尚未写入的记录在进程异常终止时会丢失，正常关闭时会先写完或转存到溢出文件
+ * Date: 2026/10/19
+ * Time: 16:00
+ *
+ * @author Rascal
+ */
+@Component
+public class AsyncAuditWriter {
+
+    private final static Logger logger = LoggerFactory.getLogger(AsyncAuditWriter.class);
+
+    private static final String SPILL_FILE_SUFFIX = ".spill";
+
+    private static final String REJECTED_FILE_SUFFIX = ".rejected";
+
+    /*当前生效的写入器，AsyncBatchAuditStrategy由Hibernate实例化，通过此静态引用获取*/
+    private static volatile AsyncAuditWriter active;
+
+    @PersistenceUnit(unitName = "entityManagerApp")
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value("${audit_async_enabled:false}")
+    private boolean enabled;
+
+    @Value("${audit_async_buffer_size:10000}")
+    private int bufferSize;
+
+    @Value("${audit_async_batch_size:200}")
+    private int batchSize;
+
+    @Value("${audit_async_flush_interval_millis:200}")
+    private long flushIntervalMillis;
+
+    @Value("${audit_async_spill_dir:}")
+    private String spillDir;
+
+    private SessionFactory sessionFactory;
+
+    private BlockingQueue<AuditRecord> buffer;
+
+    /*缓冲区已满时的溢出队列，由溢出线程成组写入溢出文件*/
+    private BlockingQueue<AuditRecord> overflow;
+
+    private Thread writerThread;
+
+    private Thread spillThread;
+
+    private volatile boolean running;
+
+    private final Object spillLock = new Object();
+
+    private File spillDirectory;
+
+    private FileOutputStream spillFileOutput;
+
+    private DataOutputStream spillOutput;
+
+    private long spillSequence;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+
+    private final AtomicLong writtenCount = new AtomicLong();
+
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    private final AtomicLong lostCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong failedFlushCount = new AtomicLong();
+
+    /*最近一次写入批次中最早捕获记录从捕获到写入完成的毫秒数*/
+    private volatile long lastFlushLagMillis;
+
+    private final AtomicLong maxFlushLagMillis = new AtomicLong();
+
+    static AsyncAuditWriter getActive() {
+        return active;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+        buffer = new ArrayBlockingQueue<>(bufferSize);
+        overflow = new ArrayBlockingQueue<>(bufferSize);
+        spillDirectory = new File(StringUtils.isNotBlank(spillDir) ? spillDir : System.getProperty("java.io.tmpdir") + "/audit-spill");
+        if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+            throw new IllegalStateException("Can not create audit spill dir: " + spillDirectory);
+        }
+        running = true;
+        writerThread = new ThreadFactoryBuilder().setNameFormat("async-audit-writer-%d").setDaemon(true).build().newThread(this::run);
+        writerThread.start();
+        spillThread = new ThreadFactoryBuilder().setNameFormat("async-audit-spill-%d").setDaemon(true).build().newThread(this::runSpill);
+        spillThread.start();
+        active = this;
+        logger.info("Async audit writer started with buffer {} batch {} spill dir {}", bufferSize, batchSize, spillDirectory);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        active = null;
+        running = false;
+        writerThread.interrupt();
+        spillThread.interrupt();
+        writerThread.join(TimeUnit.SECONDS.toMillis(30));
+        spillThread.join(TimeUnit.SECONDS.toMillis(30));
+        List<AuditRecord> overflowed = Lists.newArrayList();
+        overflow.drainTo(overflowed);
+        spill(overflowed);
+        List<AuditRecord> remaining = Lists.newArrayList();
+        buffer.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            try {
+                flush(remaining);
+            } catch (RuntimeException e) {
+                logger.warn("Flush {} audit records on shutdown failure, spill to file", remaining.size(), e);
+                spill(remaining);
+            }
+        }
+        synchronized (spillLock) {
+            closeSpillOutput();
+        }
+    }
+
+    /**
+     * 加入写入缓冲区，缓冲区已满则加入溢出队列，溢出队列也满时阻塞等待
+     */
+    void enqueue(AuditRecord record) {
+        enqueuedCount.incrementAndGet();
+        if (buffer.offer(record)) {
+            return;
+        }
+        try {
+            while (!overflow.offer(record, flushIntervalMillis, TimeUnit.MILLISECONDS)) {
+                //已停止时溢出线程不再消费，直接写入溢出文件
+                if (!running) {
+                    spill(Collections.singletonList(record));
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            spill(Collections.singletonList(record));
+        }
+    }
+
+    /**
+     * 溢出线程：成组取出溢出队列中的记录写入溢出文件，每组只刷盘一次
+     */
+    private void runSpill() {
+        List<AuditRecord> group = Lists.newArrayList();
+        while (running) {
+            try {
+                AuditRecord first = overflow.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                overflow.drainTo(group);
+                spill(group);
+                group.clear();
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    private void run() {
+        List<AuditRecord> batch = Lists.newArrayListWithCapacity(batchSize);
+        while (running) {
+            try {
+                AuditRecord first = buffer.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch, batchSize - 1);
+                    flush(batch);
+                    batch.clear();
+                }
+                if (buffer.isEmpty()) {
+                    replaySpillFiles();
+                }
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                failedFlushCount.incrementAndGet();
+                logger.warn("Write {} audit records failure, spill to file", batch.size(), e);
+                spill(batch);
+                batch.clear();
+                try {
+                    Thread.sleep(flushIntervalMillis * 10);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            spill(batch);
+        }
+    }
+
+    /**
+     * 批量写入审计记录，批次失败时逐条重试：主键冲突的记录视为已写入（溢出文件回放场景），
+     * 其它约束冲突的记录写入.rejected文件，其它异常抛出由调用方转存溢出文件
+     */
+    private void flush(List<AuditRecord> batch) {
+        int rejected = 0;
+        try {
+            write(batch);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1 && !(e instanceof ConstraintViolationException)) {
+                throw e;
+            }
+            List<AuditRecord> rejectedRecords = Lists.newArrayList();
+            for (AuditRecord record : batch) {
+                try {
+                    write(Collections.singletonList(record));
+                } catch (ConstraintViolationException ce) {
+                    if (isDuplicateKey(ce)) {
+                        logger.debug("Skip already written audit record {} of revision {}", record.getAuditEntityName(), record.getRev());
+                    } else {
+                        logger.error("Write audit record {} of revision {} violates constraint {}, reject it",
+                                record.getAuditEntityName(), record.getRev(), ce.getConstraintName(), ce);
+                        rejectedRecords.add(record);
+                    }
+                }
+            }
+            reject(rejectedRecords);
+            rejected = rejectedRecords.size();
+        }
+        long now = System.currentTimeMillis();
+        long oldest = now;
+        for (AuditRecord record : batch) {
+            oldest = Math.min(oldest, record.getCapturedTime());
+        }
+        long lag = now - oldest;
+        lastFlushLagMillis = lag;
+        long max;
+        while (lag > (max = maxFlushLagMillis.get())) {
+            if (maxFlushLagMillis.compareAndSet(max, lag)) {
+                break;
+            }
+        }
+        writtenCount.addAndGet(batch.size() - rejected);
+    }
+
+    /**
+     * 是否为主键或唯一约束冲突：SQL标准SQLState 23505（PostgreSQL、H2、DB2等），
+     * MySQL的SQLState 23000加错误码1062，Oracle错误码1，SQL Server错误码2627/2601
+     */
+    static boolean isDuplicateKey(ConstraintViolationException e) {
+        SQLException sqlException = e.getSQLException();
+        while (sqlException != null) {
+            String sqlState = sqlException.getSQLState();
+            int errorCode = sqlException.getErrorCode();
+            if ("23505".equals(sqlState) || ("23000".equals(sqlState) && (errorCode == 1062 || errorCode == 1
+                    || errorCode == 2627 || errorCode == 2601))) {
+                return true;
+            }
+            sqlException = sqlException.getNextException();
+        }
+        return false;
+    }
+
+    private void write(List<AuditRecord> records) {
+        Session session = sessionFactory.openSession();
+        Transaction transaction = session.beginTransaction();
+        try {
+            for (AuditRecord record : records) {
+                Object revisionEntity = session.load(ExtDefaultRevisionEntity.class, record.getRev());
+                session.save(record.getAuditEntityName(), record.buildData(revisionEntity));
+            }
+            session.flush();
+            transaction.commit();
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * 追加写入溢出文件并刷盘，每条记录以长度+序列化内容存储
+     */
+    private void spill(Collection<AuditRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        synchronized (spillLock) {
+            try {
+                if (spillOutput == null) {
+                    File spillFile = new File(spillDirectory, "audit-" + System.currentTimeMillis() + "-" + (spillSequence++) + SPILL_FILE_SUFFIX);
+                    spillFileOutput = new FileOutputStream(spillFile, true);
+                    spillOutput = new DataOutputStream(new BufferedOutputStream(spillFileOutput));
+                }
+                for (AuditRecord record : records) {
+                    byte[] bytes = SerializationUtils.serialize(record);
+                    spillOutput.writeInt(bytes.length);
+                    spillOutput.write(bytes);
+                }
+                spillOutput.flush();
+                spillFileOutput.getFD().sync();
+                spilledCount.addAndGet(records.size());
+            } catch (IOException | SerializationException e) {
+                lostCount.addAndGet(records.size());
+                logger.error("Spill {} audit records failure, records lost", records.size(), e);
+                closeSpillOutput();
+            }
+        }
+    }
+
+    /**
+     * 写入无法回放的记录，单独存为.rejected文件留待人工处理
+     */
+    private void reject(List<AuditRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        synchronized (spillLock) {
+            File rejectedFile = new File(spillDirectory, "audit-" + System.currentTimeMillis() + "-" + (spillSequence++) + REJECTED_FILE_SUFFIX);
+            try (FileOutputStream fileOutput = new FileOutputStream(rejectedFile);
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput))) {
+                for (AuditRecord record : records) {
+                    byte[] bytes = SerializationUtils.serialize(record);
+                    output.writeInt(bytes.length);
+                    output.write(bytes);
+                }
+                output.flush();
+                fileOutput.getFD().sync();
+                rejectedCount.addAndGet(records.size());
+            } catch (IOException | SerializationException e) {
+                lostCount.addAndGet(records.size());
+                logger.error("Save {} rejected audit records to {} failure, records lost", records.size(), rejectedFile, e);
+            }
+        }
+    }
+
+    private void closeSpillOutput() {
+        IOUtils.closeQuietly(spillOutput);
+        spillOutput = null;
+        spillFileOutput = null;
+    }
+
+    /**
+     * 回放溢出文件，全部写入成功后删除文件；写入失败则保留文件等待下次回放
+     */
+    private void replaySpillFiles() {
+        File[] files;
+        synchronized (spillLock) {
+            files = spillDirectory.listFiles((dir, name) -> name.endsWith(SPILL_FILE_SUFFIX));
+            if (files == null || files.length == 0) {
+                return;
+            }
+            //关闭当前溢出文件，之后的溢出写入新文件
+            closeSpillOutput();
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            List<AuditRecord> batch = Lists.newArrayListWithCapacity(batchSize);
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                while (true) {
+                    //记录边界处结束为正常结束，长度前缀或记录内容不完整为进程中断导致的残缺尾部
+                    int first = input.read();
+                    if (first < 0) {
+                        break;
+                    }
+                    byte[] bytes;
+                    try {
+                        bytes = new byte[first << 24 | input.readUnsignedByte() << 16 | input.readUnsignedByte() << 8 | input.readUnsignedByte()];
+                        input.readFully(bytes);
+                    } catch (EOFException e) {
+                        lostCount.incrementAndGet();
+                        logger.error("Audit spill file {} ends with a truncated record, which is lost", file);
+                        break;
+                    }
+                    batch.add((AuditRecord) SerializationUtils.deserialize(bytes));
+                    if (batch.size() >= batchSize) {
+                        flush(batch);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (IOException | SerializationException e) {
+                logger.error("Read audit spill file {} failure, keep it for manual recovery", file, e);
+                File corrupted = new File(file.getPath() + ".corrupted");
+                if (!file.renameTo(corrupted)) {
+                    logger.warn("Rename corrupted audit spill file {} failure", file);
+                }
+                continue;
+            }
+            if (!file.delete()) {
+                logger.warn("Delete replayed audit spill file {} failure", file);
+            }
+            logger.info("Replayed audit spill file {}", file);
+        }
+    }
+
+    /**
+     * 缓冲区中等待写入的记录数
+     */
+    public int getBufferDepth() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueuedCount.get();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    public long getLostCount() {
+        return lostCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * 溢出队列中等待写入溢出文件的记录数
+     */
+    public int getOverflowDepth() {
+        return overflow == null ? 0 : overflow.size();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushCount.get();
+    }
+
+    public long getLastFlushLagMillis() {
+        return lastFlushLagMillis;
+    }
+
+    public long getMaxFlushLagMillis() {
+        return maxFlushLagMillis.get();
+    }
+}
@@ -0,0 +1,66 @@
+package com.knight.core.audit.envers;
+
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.envers.configuration.spi.AuditConfiguration;
+import org.hibernate.envers.internal.entities.mapper.PersistentCollectionChangeData;
+import org.hibernate.envers.strategy.DefaultAuditStrategy;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * 支持异步批量写入的Envers审计策略，通过org.hibernate.envers.audit_strategy参数启用
+ * <p>
+ * AsyncAuditWriter启用时，审计表记录在业务事务中只捕获到内存，事务提交成功后进入AsyncAuditWriter缓冲区，
+ * 由后台线程按JDBC批次写入审计表，事务回滚则丢弃；版本记录ExtDefaultRevisionEntity仍在业务事务中同步写入以获取版本号。
+ * AsyncAuditWriter未启用时与DefaultAuditStrategy一致同步写入
+ * <p>
+ * Date: 2026/10/19
+ * Time: 15:50
+ *
+ * @author Rascal
+ */
+public class AsyncBatchAuditStrategy extends DefaultAuditStrategy {
+
+    @Override
+    public void perform(Session session, String entityName, AuditConfiguration auditCfg, Serializable id, Object data, Object revision) {
+        String auditEntityName = auditCfg.getAuditEntCfg().getAuditEntityName(entityName);
+        if (!capture(session, auditEntityName, auditCfg, data, revision)) {
+            super.perform(session, entityName, auditCfg, id, data, revision);
+        }
+    }
+
+    @Override
+    public void performCollectionChange(Session session, String entityName, String propertyName, AuditConfiguration auditCfg,
+                                        PersistentCollectionChangeData persistentCollectionChangeData, Object revision) {
+        if (!capture(session, persistentCollectionChangeData.getEntityName(), auditCfg, persistentCollectionChangeData.getData(), revision)) {
+            super.performCollectionChange(session, entityName, propertyName, auditCfg, persistentCollectionChangeData, revision);
+        }
+    }
+
+    /**
+     * 捕获审计记录，事务提交成功后加入异步写入缓冲区
+     *
+     * @return 未启用异步写入或无法捕获返回false，由调用方同步写入
+     */
+    @SuppressWarnings("unchecked")
+    private boolean capture(Session session, String auditEntityName, AuditConfiguration auditCfg, Object data, Object revision) {
+        AsyncAuditWriter writer = AsyncAuditWriter.getActive();
+        if (writer == null || !(revision instanceof ExtDefaultRevisionEntity) || !(data instanceof Map)) {
+            return false;
+        }
+        Long rev = ((ExtDefaultRevisionEntity) revision).getRev();
+        if (rev == null) {
+            return false;
+        }
+        AuditRecord record = new AuditRecord(auditEntityName, (Map<String, Object>) data,
+                auditCfg.getAuditEntCfg().getOriginalIdPropName(), auditCfg.getAuditEntCfg().getRevisionFieldName(), rev);
+        ((EventSource) session).getActionQueue().registerProcess((success, sessionImplementor) -> {
+            if (success) {
+                writer.enqueue(record);
+            }
+        });
+        return true;
+    }
+}
@@ -0,0 +1,78 @@
+package com.knight.core.audit.envers;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 异步审计模式下在业务事务中捕获的一条Envers审计表记录：审计实体名称及属性数据，
+ * 其中主键组件中的版本属性以版本号代替版本实体对象，以便序列化写入溢出文件，写入数据库时再还原为版本实体引用
+ * <p>
+ * Date: 2026/10/19
+ * Time: 15:40
+ *
+ * @author Rascal
+ */
+class AuditRecord implements Serializable {
+
+    private static final long serialVersionUID = 5123816307542261893L;
+
+    /*Envers审计实体名称，如com.knight.module.sys.entity.ConfigProperty_AUD*/
+    private final String auditEntityName;
+
+    private final HashMap<String, Object> data;
+
+    /*审计数据中主键组件属性名称，对应org.hibernate.envers.original_id_prop_name*/
+    private final String originalIdPropName;
+
+    /*主键组件中版本属性名称，对应org.hibernate.envers.revision_field_name*/
+    private final String revisionFieldName;
+
+    private final Long rev;
+
+    /*捕获时间戳，用于计算写入延迟*/
+    private final long capturedTime;
+
+    @SuppressWarnings("unchecked")
+    AuditRecord(String auditEntityName, Map<String, Object> data, String originalIdPropName, String revisionFieldName, Long rev) {
+        this.auditEntityName = auditEntityName;
+        this.data = new HashMap<>(data);
+        Object originalId = data.get(originalIdPropName);
+        if (originalId instanceof Map) {
+            HashMap<String, Object> id = new HashMap<>((Map<String, Object>) originalId);
+            id.put(revisionFieldName, rev);
+            this.data.put(originalIdPropName, id);
+        }
+        this.originalIdPropName = originalIdPropName;
+        this.revisionFieldName = revisionFieldName;
+        this.rev = rev;
+        this.capturedTime = System.currentTimeMillis();
+    }
+
+    String getAuditEntityName() {
+        return auditEntityName;
+    }
+
+    long getCapturedTime() {
+        return capturedTime;
+    }
+
+    Long getRev() {
+        return rev;
+    }
+
+    /**
+     * 构建写入数据库的审计数据，主键组件中的版本号替换为版本实体引用
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> buildData(Object revisionEntity) {
+        HashMap<String, Object> result = new HashMap<>(data);
+        Object originalId = data.get(originalIdPropName);
+        if (originalId instanceof Map) {
+            HashMap<String, Object> id = new HashMap<>((Map<String, Object>) originalId);
+            id.put(revisionFieldName, revisionEntity);
+            result.put(originalIdPropName, id);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+package com.knight.core.audit.envers;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.Transient;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 实体历史版本属性访问表，每个实体类首次访问时解析一次getter方法并转换为MethodHandle缓存，
+ * 之后读取属性不再遍历方法和反射调用
+ * Date: 2026/10/19
+ * Time: 16:40
+ *
+ * @author Rascal
+ */
+final class EntityPropertyAccessors {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityPropertyAccessors.class);
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ConcurrentMap<Class<?>, List<PropertyAccessor>> ACCESSORS = new ConcurrentHashMap<>();
+
+    private EntityPropertyAccessors() {
+    }
+
+    /**
+     * 获取实体类持久属性访问器列表，按属性名排序
+     */
+    static List<PropertyAccessor> forClass(Class<?> entityClass) {
+        List<PropertyAccessor> accessors = ACCESSORS.get(entityClass);
+        if (accessors == null) {
+            accessors = build(entityClass);
+            List<PropertyAccessor> existing = ACCESSORS.putIfAbsent(entityClass, accessors);
+            if (existing != null) {
+                accessors = existing;
+            }
+        }
+        return accessors;
+    }
+
+    private static List<PropertyAccessor> build(Class<?> entityClass) {
+        List<PropertyAccessor> accessors = Lists.newArrayList();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Method method : entityClass.getMethods()) {
+            String name = method.getName();
+            if (!name.startsWith("get") || name.length() == 3 || method.getParameterCount() > 0 || Modifier.isStatic(method.getModifiers())
+                    || name.equals("getClass") || name.equals("getVersion") || name.equals("getOptlock")) {
+                continue;
+            }
+            //排除非持久属性方法
+            if (method.getAnnotation(Transient.class) != null) {
+                continue;
+            }
+            try {
+                if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                    method.setAccessible(true);
+                }
+                MethodHandle getter = lookup.unreflect(method).asType(GETTER_TYPE);
+                boolean collection = Collection.class.isAssignableFrom(method.getReturnType());
+                accessors.add(new PropertyAccessor(StringUtils.uncapitalize(name.substring(3)), getter, collection,
+                        collection ? resolveElementTypeName(method.getGenericReturnType()) : null));
+            } catch (IllegalAccessException | SecurityException e) {
+                logger.warn("Skip inaccessible property getter {}.{}", entityClass.getName(), name, e);
+            }
+        }
+        accessors.sort(Comparator.comparing(PropertyAccessor::getName));
+        return Collections.unmodifiableList(accessors);
+    }
+
+    private static String resolveElementTypeName(Type type) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (arguments.length == 1 && arguments[0] instanceof Class) {
+                return ((Class<?>) arguments[0]).getSimpleName();
+            }
+        }
+        return "Object";
+    }
+
+    /**
+     * 单个持久属性访问器
+     */
+    static final class PropertyAccessor {
+
+        private final String name;
+
+        private final MethodHandle getter;
+
+        private final boolean collection;
+
+        /*集合元素类型简单名称，用于未加载集合的摘要显示*/
+        private final String elementTypeName;
+
+        private PropertyAccessor(String name, MethodHandle getter, boolean collection, String elementTypeName) {
+            this.name = name;
+            this.getter = getter;
+            this.collection = collection;
+            this.elementTypeName = elementTypeName;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        boolean isCollection() {
+            return collection;
+        }
+
+        String getElementTypeName() {
+            return elementTypeName;
+        }
+
+        Object get(Object entity) throws Throwable {
+            return (Object) getter.invokeExact(entity);
+        }
+    }
+}
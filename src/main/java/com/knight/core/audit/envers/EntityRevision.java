@@ -2,21 +2,34 @@ package com.knight.core.audit.envers;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
-import org.apache.commons.collections.CollectionUtils;
+import com.google.common.collect.Maps;
+import com.knight.core.audit.envers.EntityPropertyAccessors.PropertyAccessor;
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.collection.spi.PersistentCollection;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.AuditReader;
+import org.hibernate.envers.AuditReaderFactory;
 import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.configuration.spi.AuditConfiguration;
+import org.hibernate.envers.internal.entities.RelationDescription;
+import org.hibernate.envers.internal.entities.RelationType;
+import org.hibernate.envers.internal.entities.mapper.relation.lazy.proxy.CollectionProxy;
+import org.hibernate.envers.query.AuditEntity;
+import org.hibernate.envers.query.criteria.AuditDisjunction;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.HibernateProxyHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Persistable;
 
-import javax.persistence.Transient;
+import javax.persistence.EntityManager;
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
 
 /**
  * Date: 2015/11/28
@@ -28,6 +41,9 @@ public class EntityRevision {
 
     private static Logger logger = LoggerFactory.getLogger(EntityRevision.class);
 
+    /*未加载集合的摘要占位*/
+    private static final Object NOT_LOADED = new Object();
+
     /**
      * The first element will be the changed entity instance.
      */
@@ -45,6 +61,9 @@ public class EntityRevision {
      */
     private RevisionType revisionType;
 
+    /*通过loadCollectionIds批量加载的集合属性元素主键，key为集合属性名*/
+    private final Map<String, List<Serializable>> collectionIds = Maps.newHashMap();
+
     @JsonIgnore
     public Object getEntity() {
         return entity;
@@ -70,62 +89,268 @@ public class EntityRevision {
         this.revisionType = revisionType;
     }
 
+    /**
+     * 版本实体的持久属性值列表，通过缓存的属性访问表读取；
+     * 实体集合属性摘要为"元素类型[主键列表]"，主键取自loadCollectionIds批量加载的结果或已初始化的集合，
+     * 两者都没有的历史集合不会触发加载，摘要为"元素类型[...]"
+     */
     @SuppressWarnings("rawtypes")
     @JsonIgnore
     public List<RevEntityProperty> getRevEntityProperties() {
         List<RevEntityProperty> revEntityProperties = new ArrayList<RevEntityProperty>();
-        Method[] methods = entity.getClass().getMethods();
-        Set<String> excludeBaseProperties = Sets.newHashSet();
-        for (Method method : methods) {
-            if (!method.getName().startsWith("get") || method.getName().equals("getClass") || method.getName().equals("getVersion")
-                    || method.getName().equals("getOptlock")) {
-                continue;
+        //分页查询的版本元数据不包含历史实体状态
+        if (entity == null) {
+            return revEntityProperties;
+        }
+        for (PropertyAccessor accessor : EntityPropertyAccessors.forClass(HibernateProxyHelper.getClassWithoutInitializingProxy(entity))) {
+            try {
+                Object entityFieldValue = accessor.get(entity);
+                if (accessor.isCollection()) {
+                    entityFieldValue = summarizeCollection(accessor, (Collection) entityFieldValue);
+                }
+                RevEntityProperty item = new RevEntityProperty();
+                item.setPropertyName(accessor.getName());
+                item.setPropertyValue(entityFieldValue == NOT_LOADED ? accessor.getElementTypeName() + "[...]" : entityFieldValue);
+                revEntityProperties.add(item);
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
             }
+        }
+        return revEntityProperties;
+    }
+
+    /**
+     * 与另一个版本比较，返回属性值有变化的属性，当前版本为新值，other为旧值；other为空或不含实体状态时所有非空属性视为新增
+     * <p>
+     * 关联实体按主键比较，集合按元素主键比较；两个版本都需要先通过loadCollectionIds加载集合元素主键，
+     * 否则未初始化的历史集合无法在不查询数据库的情况下比较，不包含在结果中
+     */
+    @SuppressWarnings("rawtypes")
+    public List<RevEntityPropertyChange> diff(EntityRevision other) {
+        List<RevEntityPropertyChange> changes = Lists.newArrayList();
+        if (entity == null) {
+            return changes;
+        }
+        Object otherEntity = other == null ? null : other.getEntity();
+        Class<?> entityClass = HibernateProxyHelper.getClassWithoutInitializingProxy(entity);
+        if (otherEntity != null && !entityClass.equals(HibernateProxyHelper.getClassWithoutInitializingProxy(otherEntity))) {
+            throw new IllegalArgumentException("Can not diff revisions of different entity class: " + entityClass.getName());
+        }
+        for (PropertyAccessor accessor : EntityPropertyAccessors.forClass(entityClass)) {
+            try {
+                Object newValue = accessor.get(entity);
+                Object oldValue = otherEntity == null ? null : accessor.get(otherEntity);
+                if (accessor.isCollection()) {
+                    newValue = summarizeCollection(accessor, (Collection) newValue);
+                    oldValue = otherEntity == null ? null : other.summarizeCollection(accessor, (Collection) oldValue);
+                    if (newValue == NOT_LOADED || oldValue == NOT_LOADED) {
+                        continue;
+                    }
+                }
+                if (!Objects.equals(comparableValue(newValue), comparableValue(oldValue))) {
+                    changes.add(new RevEntityPropertyChange(accessor.getName(), oldValue, newValue));
+                }
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+        return changes;
+    }
 
-            //排除非持久属性方法
-            if (method.getAnnotation(Transient.class) != null) {
+    /**
+     * 为同一实体的一组历史版本批量加载集合属性的元素主键，供getRevEntityProperties和diff使用；
+     * 每个集合属性固定两次查询，与版本数量无关：先查出曾经关联当前实体的元素主键，
+     * 再查出这些元素截至最大版本号的全部审计记录，按版本号回放得到各版本时刻集合包含的元素
+     * <p>
+     * 支持mappedBy方式的一对多审计集合，其它集合不处理
+     *
+     * @param entityClass 实体类
+     * @param id          实体主键
+     * @param revisions   已加载实体状态的历史版本
+     */
+    public static void loadCollectionIds(EntityManager entityManager, Class<?> entityClass, Serializable id, List<EntityRevision> revisions) {
+        long maxRev = 0;
+        for (EntityRevision revision : revisions) {
+            if (revision.entity != null && revision.revisionEntity != null) {
+                maxRev = Math.max(maxRev, revision.revisionEntity.getRev());
+            }
+        }
+        if (maxRev == 0) {
+            return;
+        }
+        SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+        AuditConfiguration auditCfg = EnversSupport.getAuditConfiguration(sessionFactory);
+        String entityName = entityClass.getName();
+        if (!auditCfg.getEntCfg().isVersioned(entityName)) {
+            return;
+        }
+        AuditReader auditReader = AuditReaderFactory.get(entityManager);
+        for (PropertyAccessor accessor : EntityPropertyAccessors.forClass(entityClass)) {
+            if (!accessor.isCollection()) {
                 continue;
             }
+            RelationDescription relation = auditCfg.getEntCfg().getRelationDescription(entityName, accessor.getName());
+            if (relation == null || relation.getRelationType() != RelationType.TO_MANY_NOT_OWNING || relation.getMappedByPropertyName() == null) {
+                continue;
+            }
+            Class<?> elementClass = sessionFactory.getClassMetadata(relation.getToEntityName()).getMappedClass();
+            Map<Serializable, List<ElementState>> histories = loadElementHistories(auditReader, elementClass,
+                    relation.getMappedByPropertyName(), id, maxRev);
+            for (EntityRevision revision : revisions) {
+                if (revision.entity != null && revision.revisionEntity != null) {
+                    revision.collectionIds.put(accessor.getName(), elementIdsAt(histories, revision.revisionEntity.getRev()));
+                }
+            }
+        }
+    }
 
-            //排除基类方法
-            boolean skipMethod = false;
-            for (String excludeProperty : excludeBaseProperties) {
-                if (method.getName().equals("get" + StringUtils.capitalize(excludeProperty))) {
-                    skipMethod = true;
+    /**
+     * 查询曾经关联到指定实体的集合元素截至maxRev的审计记录，按元素主键分组、版本号升序排列
+     */
+    private static Map<Serializable, List<ElementState>> loadElementHistories(AuditReader auditReader, Class<?> elementClass,
+                                                                              String mappedBy, Serializable id, long maxRev) {
+        Map<Serializable, List<ElementState>> histories = new TreeMap<>();
+        List<?> owned = auditReader.createQuery().forRevisionsOfEntity(elementClass, true, true)
+                .add(AuditEntity.relatedId(mappedBy).eq(id))
+                .add(AuditEntity.revisionNumber().le(maxRev))
+                .getResultList();
+        if (owned.isEmpty()) {
+            return histories;
+        }
+        //元素后续被删除或转移到其它实体的审计记录不带当前实体外键，需按元素主键取完整记录
+        AuditDisjunction elementIds = AuditEntity.disjunction();
+        for (Object element : owned) {
+            Serializable elementId = identifier(element);
+            if (!histories.containsKey(elementId)) {
+                histories.put(elementId, Lists.<ElementState>newArrayList());
+                elementIds.add(AuditEntity.id().eq(elementId));
+            }
+        }
+        PropertyAccessor ownerAccessor = null;
+        for (PropertyAccessor accessor : EntityPropertyAccessors.forClass(elementClass)) {
+            if (accessor.getName().equals(mappedBy)) {
+                ownerAccessor = accessor;
+                break;
+            }
+        }
+        if (ownerAccessor == null) {
+            throw new IllegalArgumentException("No property " + mappedBy + " found in " + elementClass.getName());
+        }
+        List<?> rows = auditReader.createQuery().forRevisionsOfEntity(elementClass, false, true)
+                .add(elementIds)
+                .add(AuditEntity.revisionNumber().le(maxRev))
+                .addOrder(AuditEntity.revisionNumber().asc())
+                .getResultList();
+        String ownerId = String.valueOf(id);
+        for (Object row : rows) {
+            Object[] itemArray = (Object[]) row;
+            Object element = itemArray[0];
+            boolean present = itemArray[2] != RevisionType.DEL;
+            if (present) {
+                Object owner;
+                try {
+                    owner = ownerAccessor.get(element);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Read property " + mappedBy + " of " + elementClass.getName() + " failure", e);
+                }
+                present = owner instanceof Persistable && ownerId.equals(String.valueOf(identifier(owner)));
+            }
+            histories.get(identifier(element)).add(new ElementState(((ExtDefaultRevisionEntity) itemArray[1]).getRev(), present));
+        }
+        return histories;
+    }
+
+    /**
+     * 指定版本时刻集合包含的元素主键：各元素版本号不大于rev的最后一条审计记录为关联状态
+     */
+    private static List<Serializable> elementIdsAt(Map<Serializable, List<ElementState>> histories, long rev) {
+        List<Serializable> ids = Lists.newArrayList();
+        for (Map.Entry<Serializable, List<ElementState>> entry : histories.entrySet()) {
+            ElementState current = null;
+            for (ElementState state : entry.getValue()) {
+                if (state.rev > rev) {
                     break;
                 }
+                current = state;
             }
-            if (skipMethod) {
-                continue;
+            if (current != null && current.present) {
+                ids.add(entry.getKey());
             }
+        }
+        return ids;
+    }
 
-            try {
-                Object entityFieldValue = method.invoke(entity);
-                if (entityFieldValue instanceof Collection) {
-                    Collection items = (Collection) entityFieldValue;
-                    if (CollectionUtils.isNotEmpty(items)) {
-                        String propertyClass = null;
-                        List<Serializable> ids = Lists.newArrayList();
-                        for (Object object : items) {
-                            if (object instanceof Persistable) {
-                                propertyClass = object.getClass().getSimpleName();
-                                ids.add(((Persistable) object).getId());
-                            }
-                        }
-                        if (ids.size() > 0) {
-                            entityFieldValue = propertyClass + "[" + StringUtils.join(ids, ",") + "]";
-                        }
-                    }
-                }
-                RevEntityProperty item = new RevEntityProperty();
-                item.setPropertyName(StringUtils.uncapitalize(StringUtils.substring(method.getName(), 3)));
-                item.setPropertyValue(entityFieldValue);
-                revEntityProperties.add(item);
-            } catch (Exception e) {
-                logger.error(e.getMessage(), e);
+    /**
+     * 集合属性摘要，实体集合转换为"元素类型[主键列表]"，不初始化未加载的集合
+     *
+     * @return 集合未加载且没有批量加载的元素主键返回NOT_LOADED
+     */
+    @SuppressWarnings("rawtypes")
+    private Object summarizeCollection(PropertyAccessor accessor, Collection items) {
+        List<Serializable> loadedIds = collectionIds.get(accessor.getName());
+        if (loadedIds != null) {
+            return accessor.getElementTypeName() + "[" + StringUtils.join(loadedIds, ",") + "]";
+        }
+        if (items == null) {
+            return null;
+        }
+        if (items instanceof PersistentCollection && !((PersistentCollection) items).wasInitialized()) {
+            return NOT_LOADED;
+        }
+        //Envers历史集合代理遍历会逐个版本查询，元素主键只通过loadCollectionIds批量加载
+        if (items instanceof CollectionProxy) {
+            return NOT_LOADED;
+        }
+        if (items.isEmpty()) {
+            return items;
+        }
+        String propertyClass = null;
+        List<Serializable> ids = Lists.newArrayList();
+        for (Object object : items) {
+            if (object instanceof Persistable) {
+                propertyClass = HibernateProxyHelper.getClassWithoutInitializingProxy(object).getSimpleName();
+                ids.add(identifier(object));
             }
         }
-        return revEntityProperties;
+        if (ids.size() > 0) {
+            return StringUtils.defaultString(propertyClass, accessor.getElementTypeName()) + "[" + StringUtils.join(ids, ",") + "]";
+        }
+        return items;
+    }
+
+    /**
+     * 关联实体转换为主键用于比较，避免初始化代理
+     */
+    @SuppressWarnings("rawtypes")
+    private static Object comparableValue(Object value) {
+        if (value instanceof Persistable) {
+            return HibernateProxyHelper.getClassWithoutInitializingProxy(value).getName() + "#" + identifier(value);
+        }
+        return value;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static Serializable identifier(Object object) {
+        if (object instanceof HibernateProxy) {
+            return ((HibernateProxy) object).getHibernateLazyInitializer().getIdentifier();
+        }
+        return ((Persistable) object).getId();
+    }
+
+    /**
+     * 集合元素在某个版本的关联状态
+     */
+    private static class ElementState {
+
+        private final long rev;
+
+        /*该版本后元素是否仍在集合中*/
+        private final boolean present;
+
+        private ElementState(long rev, boolean present) {
+            this.rev = rev;
+            this.present = present;
+        }
     }
 
     public static class RevEntityProperty {
@@ -150,4 +375,32 @@ public class EntityRevision {
 
     }
 
+    /**
+     * 两个版本间有变化的属性
+     */
+    public static class RevEntityPropertyChange {
+        private final String propertyName;
+        private final Object oldValue;
+        private final Object newValue;
+
+        public RevEntityPropertyChange(String propertyName, Object oldValue, Object newValue) {
+            this.propertyName = propertyName;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public String getPropertyName() {
+            return propertyName;
+        }
+
+        public Object getOldValue() {
+            return oldValue;
+        }
+
+        public Object getNewValue() {
+            return newValue;
+        }
+
+    }
+
 }
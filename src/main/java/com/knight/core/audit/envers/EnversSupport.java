@@ -0,0 +1,35 @@
+package com.knight.core.audit.envers;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.configuration.spi.AuditConfiguration;
+import org.hibernate.envers.event.spi.EnversListener;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.service.spi.ServiceException;
+
+/**
+ * Envers辅助方法
+ * <p>
+ * Date: 2026/10/19
+ * Time: 21:10
+ *
+ * @author Rascal
+ */
+public final class EnversSupport {
+
+    private EnversSupport() {
+    }
+
+    /**
+     * 从Envers事件监听器取得审计配置，用于获取审计实体名称、版本号属性路径及关联关系描述
+     */
+    public static AuditConfiguration getAuditConfiguration(SessionFactoryImplementor sessionFactory) {
+        EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        for (Object listener : registry.getEventListenerGroup(EventType.POST_INSERT).listeners()) {
+            if (listener instanceof EnversListener) {
+                return ((EnversListener) listener).getAuditConfiguration();
+            }
+        }
+        throw new ServiceException("Envers audit configuration not found");
+    }
+}
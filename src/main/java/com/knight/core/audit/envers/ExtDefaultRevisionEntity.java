@@ -19,7 +19,7 @@ import java.util.Date;
  * @author Rascal
  */
 @Entity
-@Table(name = "aud_revisionEntity")
+@Table(name = "aud_revisionEntity", indexes = @Index(name = "idx_revisionentity_revstmp", columnList = "revstmp"))
 @RevisionEntity(ExtRevisionListener.class)
 @JsonIgnoreProperties(value = { "hibernateLazyInitializer", "javassistLazyInitializer", "revisionEntity", "handler" }, ignoreUnknown = true)
 public class ExtDefaultRevisionEntity {
@@ -0,0 +1,185 @@
+package com.knight.core.audit.envers;
+
+import com.knight.core.security.AuthContextHolder;
+import com.knight.core.security.AuthUserDetails;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 当前线程的审计操作上下文，记录Web层请求执行的Controller类名、方法名及操作说明，供ExtRevisionListener写入版本记录
+ * <p>
+ * 每个线程持有一个固定字段的上下文对象并重复使用，设置属性不产生对象分配；请求结束时由OperationContextFilter调用reset清空，
+ * 避免线程池复用请求线程时把上一个请求的属性带入下一个请求
+ * <p>
+ * 在请求中提交到线程池的异步任务通过wrap包装，执行时带入提交时的上下文和登录用户信息，执行结束后恢复执行线程原有上下文
+ * Date: 2026/10/19
+ * Time: 18:20
+ *
+ * @author Rascal
+ */
+public final class OperationContext {
+
+    private static final ThreadLocal<OperationContext> CURRENT = ThreadLocal.withInitial(OperationContext::new);
+
+    private String controllerClassName;
+
+    private String controllerMethodName;
+
+    private String operationExplain;
+
+    /*异步任务带入的登录用户信息，执行线程无登录上下文时使用*/
+    private String authGuid;
+
+    private String authDisplay;
+
+    private OperationContext() {
+    }
+
+    /**
+     * 当前线程的操作上下文
+     */
+    public static OperationContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 清空当前线程的操作上下文
+     */
+    public static void reset() {
+        CURRENT.get().clear();
+    }
+
+    /**
+     * 包装异步任务，执行时使用当前线程的操作上下文
+     */
+    public static Runnable wrap(Runnable task) {
+        OperationContext captured = capture();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            OperationContext context = current();
+            OperationContext previous = context.attach(captured);
+            try {
+                task.run();
+            } finally {
+                context.detach(previous);
+            }
+        };
+    }
+
+    /**
+     * 包装异步任务，执行时使用当前线程的操作上下文
+     */
+    public static <V> Callable<V> wrap(Callable<V> task) {
+        OperationContext captured = capture();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            OperationContext context = current();
+            OperationContext previous = context.attach(captured);
+            try {
+                return task.call();
+            } finally {
+                context.detach(previous);
+            }
+        };
+    }
+
+    /**
+     * 复制当前线程上下文并补充登录用户信息
+     *
+     * @return 没有需要传递的内容返回null
+     */
+    private static OperationContext capture() {
+        OperationContext captured = new OperationContext();
+        captured.copyFrom(current());
+        if (captured.authGuid == null) {
+            AuthUserDetails authUserDetails = AuthContextHolder.getAuthUserDetails();
+            if (authUserDetails != null) {
+                captured.authGuid = authUserDetails.getAuthGuid();
+                captured.authDisplay = authUserDetails.getAuthDisplay();
+            }
+        }
+        return captured.isEmpty() ? null : captured;
+    }
+
+    /**
+     * 带入传递的上下文
+     *
+     * @return 原有上下文副本，原有上下文为空返回null
+     */
+    private OperationContext attach(OperationContext captured) {
+        OperationContext previous = null;
+        if (!isEmpty()) {
+            previous = new OperationContext();
+            previous.copyFrom(this);
+        }
+        copyFrom(captured);
+        return previous;
+    }
+
+    private void detach(OperationContext previous) {
+        if (previous == null) {
+            clear();
+        } else {
+            copyFrom(previous);
+        }
+    }
+
+    private void copyFrom(OperationContext other) {
+        controllerClassName = other.controllerClassName;
+        controllerMethodName = other.controllerMethodName;
+        operationExplain = other.operationExplain;
+        authGuid = other.authGuid;
+        authDisplay = other.authDisplay;
+    }
+
+    private void clear() {
+        controllerClassName = null;
+        controllerMethodName = null;
+        operationExplain = null;
+        authGuid = null;
+        authDisplay = null;
+    }
+
+    private boolean isEmpty() {
+        return controllerClassName == null && controllerMethodName == null && operationExplain == null && authGuid == null;
+    }
+
+    public String getControllerClassName() {
+        return controllerClassName;
+    }
+
+    public OperationContext setControllerClassName(String controllerClassName) {
+        this.controllerClassName = controllerClassName;
+        return this;
+    }
+
+    public String getControllerMethodName() {
+        return controllerMethodName;
+    }
+
+    public OperationContext setControllerMethodName(String controllerMethodName) {
+        this.controllerMethodName = controllerMethodName;
+        return this;
+    }
+
+    public String getOperationExplain() {
+        return operationExplain;
+    }
+
+    public OperationContext setOperationExplain(String operationExplain) {
+        this.operationExplain = operationExplain;
+        return this;
+    }
+
+    public String getAuthGuid() {
+        return authGuid;
+    }
+
+    public String getAuthDisplay() {
+        return authDisplay;
+    }
+}
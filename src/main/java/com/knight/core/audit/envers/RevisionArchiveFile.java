@@ -0,0 +1,526 @@
+package com.knight.core.audit.envers;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 审计历史归档文件：GZIP压缩的列式存储，文件由多个行组组成，每个行组按列依次存储该列全部行的值，
+ * 同一列的值相邻存放压缩率明显高于逐行存储
+ * <p>
+ * 每个行组头部记录主键列的最小值和最大值，按主键查询时跳过不可能包含该主键的行组；
+ * 文件级的数值主键范围由Writer汇总，登记到归档索引后可以在打开文件前排除整个文件
+ * <p>
+ * 列值按类型编码为基本类型或字符串，文件内容自描述，读取时不做Java反序列化：
+ * 整数、浮点、布尔按定长写入，日期写入毫秒数（Timestamp另写纳秒），BigDecimal/BigInteger写入字符串，
+ * 同一列出现不同类型或无法识别的类型时整列按字符串写入
+ * <p>
+ * 文件格式：魔数，之后每个行组为 行数 + 主键最小值 + 主键最大值 + 列数据长度 + 列数据，以行数-1结束；
+ * 列数据为 列数 + (列名 + 类型 + 空值位图 + 值数据长度 + 非空值)*，主键值为 类型 + 值
+ * Date: 2026/10/19
+ * Time: 17:10
+ *
+ * @author Rascal
+ */
+public class RevisionArchiveFile {
+
+    private static final String MAGIC = "KNIGHT-REVISION-ARCHIVE-3";
+
+    private static final int END_OF_FILE = -1;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_SHORT = 4;
+    private static final byte TYPE_BYTE = 5;
+    private static final byte TYPE_DOUBLE = 6;
+    private static final byte TYPE_FLOAT = 7;
+    private static final byte TYPE_BOOLEAN = 8;
+    private static final byte TYPE_DECIMAL = 9;
+    private static final byte TYPE_BIG_INTEGER = 10;
+    private static final byte TYPE_DATE = 11;
+    private static final byte TYPE_SQL_DATE = 12;
+    private static final byte TYPE_TIME = 13;
+    private static final byte TYPE_TIMESTAMP = 14;
+    private static final byte TYPE_BYTES = 15;
+
+    private RevisionArchiveFile() {
+    }
+
+    /**
+     * 创建归档文件写入器
+     *
+     * @param keyColumn 主键列名，写入时汇总各行组的主键范围
+     */
+    public static Writer create(File file, String keyColumn) throws IOException {
+        return new Writer(file, keyColumn);
+    }
+
+    /**
+     * 读取归档文件中主键列等于指定值的行，主键范围不包含该值的行组直接跳过
+     *
+     * @param file      归档文件
+     * @param keyColumn 主键列名，与写入时一致
+     * @param key       主键值，按字符串形式比较相等
+     */
+    public static List<Map<String, Object>> read(File file, String keyColumn, final Object key) throws IOException {
+        final List<Map<String, Object>> rows = Lists.newArrayList();
+        final String keyValue = String.valueOf(key);
+        scan(file, keyColumn, key, null, new RowGroupHandler() {
+            @Override
+            public void handle(Map<String, Object[]> columns, int rowCount) {
+                Object[] keys = columns.get(keyColumn);
+                for (int row = 0; row < rowCount; row++) {
+                    if (keys == null || !keyValue.equals(String.valueOf(keys[row]))) {
+                        continue;
+                    }
+                    Map<String, Object> data = Maps.newLinkedHashMap();
+                    for (Map.Entry<String, Object[]> column : columns.entrySet()) {
+                        data.put(column.getKey(), column.getValue()[row]);
+                    }
+                    rows.add(data);
+                }
+            }
+        });
+        return rows;
+    }
+
+    /**
+     * 按行组顺序读取归档文件的指定列，用于删除已归档的审计记录等只需要部分列的场景
+     *
+     * @param columnNames 需要读取的列名，其余列按长度跳过不解码
+     */
+    public static void readColumns(File file, Set<String> columnNames, RowGroupHandler handler) throws IOException {
+        scan(file, null, null, columnNames, handler);
+    }
+
+    private static void scan(File file, String keyColumn, Object key, Set<String> columnNames, RowGroupHandler handler) throws IOException {
+        try (DataInputStream input = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+            if (!MAGIC.equals(input.readUTF())) {
+                throw new IOException("Not a revision archive file: " + file);
+            }
+            int rowCount;
+            while ((rowCount = input.readInt()) != END_OF_FILE) {
+                Object groupMin = readValue(input, input.readByte());
+                Object groupMax = readValue(input, input.readByte());
+                int columnsLength = input.readInt();
+                if (keyColumn != null && groupMin != null && (compareKey(key, groupMin) < 0 || compareKey(key, groupMax) > 0)) {
+                    IOUtils.skipFully(input, columnsLength);
+                    continue;
+                }
+                byte[] columnsBlock = new byte[columnsLength];
+                input.readFully(columnsBlock);
+                handler.handle(readColumns(new DataInputStream(new ByteArrayInputStream(columnsBlock)), rowCount, columnNames), rowCount);
+            }
+        }
+    }
+
+    private static Map<String, Object[]> readColumns(DataInputStream input, int rowCount, Set<String> columnNames) throws IOException {
+        Map<String, Object[]> columns = Maps.newLinkedHashMap();
+        int columnCount = input.readInt();
+        for (int i = 0; i < columnCount; i++) {
+            String columnName = input.readUTF();
+            byte type = input.readByte();
+            byte[] nulls = new byte[(rowCount + 7) / 8];
+            input.readFully(nulls);
+            int dataLength = input.readInt();
+            if (columnNames != null && !columnNames.contains(columnName)) {
+                IOUtils.skipFully(input, dataLength);
+                continue;
+            }
+            Object[] values = new Object[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                if ((nulls[row >> 3] & (1 << (row & 7))) == 0) {
+                    values[row] = readValue(input, type);
+                }
+            }
+            columns.put(columnName, values);
+        }
+        return columns;
+    }
+
+    private static byte typeOf(Object value) {
+        if (value == null) {
+            return TYPE_NULL;
+        }
+        if (value instanceof String || value instanceof Character || value instanceof Enum) {
+            return TYPE_STRING;
+        }
+        if (value instanceof Long) {
+            return TYPE_LONG;
+        }
+        if (value instanceof Integer) {
+            return TYPE_INT;
+        }
+        if (value instanceof Short) {
+            return TYPE_SHORT;
+        }
+        if (value instanceof Byte) {
+            return TYPE_BYTE;
+        }
+        if (value instanceof Double) {
+            return TYPE_DOUBLE;
+        }
+        if (value instanceof Float) {
+            return TYPE_FLOAT;
+        }
+        if (value instanceof Boolean) {
+            return TYPE_BOOLEAN;
+        }
+        if (value instanceof BigDecimal) {
+            return TYPE_DECIMAL;
+        }
+        if (value instanceof BigInteger) {
+            return TYPE_BIG_INTEGER;
+        }
+        if (value instanceof Timestamp) {
+            return TYPE_TIMESTAMP;
+        }
+        if (value instanceof java.sql.Date) {
+            return TYPE_SQL_DATE;
+        }
+        if (value instanceof Time) {
+            return TYPE_TIME;
+        }
+        if (value instanceof Date || value instanceof Calendar) {
+            return TYPE_DATE;
+        }
+        if (value instanceof byte[]) {
+            return TYPE_BYTES;
+        }
+        return TYPE_STRING;
+    }
+
+    private static void writeValue(DataOutput output, byte type, Object value) throws IOException {
+        switch (type) {
+            case TYPE_NULL:
+                break;
+            case TYPE_LONG:
+                output.writeLong((Long) value);
+                break;
+            case TYPE_INT:
+                output.writeInt((Integer) value);
+                break;
+            case TYPE_SHORT:
+                output.writeShort((Short) value);
+                break;
+            case TYPE_BYTE:
+                output.writeByte((Byte) value);
+                break;
+            case TYPE_DOUBLE:
+                output.writeDouble((Double) value);
+                break;
+            case TYPE_FLOAT:
+                output.writeFloat((Float) value);
+                break;
+            case TYPE_BOOLEAN:
+                output.writeBoolean((Boolean) value);
+                break;
+            case TYPE_DECIMAL:
+                writeString(output, ((BigDecimal) value).toString());
+                break;
+            case TYPE_TIMESTAMP:
+                output.writeLong(((Timestamp) value).getTime());
+                output.writeInt(((Timestamp) value).getNanos());
+                break;
+            case TYPE_SQL_DATE:
+            case TYPE_TIME:
+            case TYPE_DATE:
+                output.writeLong(value instanceof Calendar ? ((Calendar) value).getTimeInMillis() : ((Date) value).getTime());
+                break;
+            case TYPE_BYTES:
+                output.writeInt(((byte[]) value).length);
+                output.write((byte[]) value);
+                break;
+            default:
+                writeString(output, value instanceof Enum ? ((Enum<?>) value).name() : String.valueOf(value));
+        }
+    }
+
+    private static Object readValue(DataInput input, byte type) throws IOException {
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_STRING:
+                return readString(input);
+            case TYPE_LONG:
+                return input.readLong();
+            case TYPE_INT:
+                return input.readInt();
+            case TYPE_SHORT:
+                return input.readShort();
+            case TYPE_BYTE:
+                return input.readByte();
+            case TYPE_DOUBLE:
+                return input.readDouble();
+            case TYPE_FLOAT:
+                return input.readFloat();
+            case TYPE_BOOLEAN:
+                return input.readBoolean();
+            case TYPE_DECIMAL:
+                return new BigDecimal(readString(input));
+            case TYPE_BIG_INTEGER:
+                return new BigInteger(readString(input));
+            case TYPE_TIMESTAMP:
+                Timestamp timestamp = new Timestamp(input.readLong());
+                timestamp.setNanos(input.readInt());
+                return timestamp;
+            case TYPE_SQL_DATE:
+                return new java.sql.Date(input.readLong());
+            case TYPE_TIME:
+                return new Time(input.readLong());
+            case TYPE_DATE:
+                return new Date(input.readLong());
+            case TYPE_BYTES:
+                byte[] bytes = new byte[input.readInt()];
+                input.readFully(bytes);
+                return bytes;
+            default:
+                throw new IOException("Unknown revision archive value type: " + type);
+        }
+    }
+
+    /**
+     * 字符串按长度+UTF-8字节写入，不受writeUTF的64K长度限制
+     */
+    private static void writeString(DataOutput output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 比较主键值：都为整数（或整数字符串）时按数值比较，否则按字符串比较
+     */
+    static int compareKey(Object a, Object b) {
+        Long numberA = toLong(a);
+        Long numberB = toLong(b);
+        if (numberA != null && numberB != null) {
+            return Long.compare(numberA, numberB);
+        }
+        return String.valueOf(a).compareTo(String.valueOf(b));
+    }
+
+    private static Long toLong(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String && NumberUtils.isDigits((String) value) && ((String) value).length() < 19) {
+            return Long.valueOf((String) value);
+        }
+        return null;
+    }
+
+    /**
+     * 行组读取回调
+     */
+    public interface RowGroupHandler {
+
+        /**
+         * @param columns  列名到该列全部行值的映射，只包含请求读取的列
+         * @param rowCount 行组行数
+         */
+        void handle(Map<String, Object[]> columns, int rowCount) throws IOException;
+    }
+
+    /**
+     * 归档文件写入器，close时写入结束标记并刷盘
+     */
+    public static class Writer implements Closeable {
+
+        private final String keyColumn;
+
+        private final FileOutputStream fileOutput;
+
+        private final GZIPOutputStream gzipOutput;
+
+        private final DataOutputStream output;
+
+        private long rowCount;
+
+        /*文件内数值主键范围，出现非数值主键后不再汇总*/
+        private Long minKey;
+
+        private Long maxKey;
+
+        private boolean numericKeys = true;
+
+        private boolean closed;
+
+        private Writer(File file, String keyColumn) throws IOException {
+            this.keyColumn = keyColumn;
+            fileOutput = new FileOutputStream(file);
+            try {
+                gzipOutput = new GZIPOutputStream(new BufferedOutputStream(fileOutput), 64 * 1024);
+                output = new DataOutputStream(gzipOutput);
+                output.writeUTF(MAGIC);
+            } catch (IOException e) {
+                IOUtils.closeQuietly(fileOutput);
+                throw e;
+            }
+        }
+
+        /**
+         * 写入一个行组，列为所有行属性名的并集，缺少的属性值为null
+         */
+        public void writeRowGroup(Collection<Map<String, Object>> rows) throws IOException {
+            if (rows.isEmpty()) {
+                return;
+            }
+            Set<String> columnNames = new LinkedHashSet<>();
+            Object groupMin = null;
+            Object groupMax = null;
+            for (Map<String, Object> row : rows) {
+                columnNames.addAll(row.keySet());
+                Object key = row.get(keyColumn);
+                if (key == null) {
+                    continue;
+                }
+                if (groupMin == null || compareKey(key, groupMin) < 0) {
+                    groupMin = key;
+                }
+                if (groupMax == null || compareKey(key, groupMax) > 0) {
+                    groupMax = key;
+                }
+                collectFileKey(key);
+            }
+            //每个行组单独编码，读取时可按长度整体跳过
+            ByteArrayOutputStream columnsBytes = new ByteArrayOutputStream();
+            DataOutputStream columnsOutput = new DataOutputStream(columnsBytes);
+            columnsOutput.writeInt(columnNames.size());
+            for (String columnName : columnNames) {
+                writeColumn(columnsOutput, columnName, rows);
+            }
+            columnsOutput.flush();
+            output.writeInt(rows.size());
+            writeKey(groupMin);
+            writeKey(groupMax);
+            output.writeInt(columnsBytes.size());
+            columnsBytes.writeTo(output);
+            rowCount += rows.size();
+        }
+
+        private void writeColumn(DataOutputStream columnsOutput, String columnName, Collection<Map<String, Object>> rows) throws IOException {
+            byte type = TYPE_NULL;
+            byte[] nulls = new byte[(rows.size() + 7) / 8];
+            int row = 0;
+            for (Map<String, Object> data : rows) {
+                byte valueType = typeOf(data.get(columnName));
+                if (valueType == TYPE_NULL) {
+                    nulls[row >> 3] |= 1 << (row & 7);
+                } else if (type == TYPE_NULL) {
+                    type = valueType;
+                } else if (type != valueType) {
+                    type = TYPE_STRING;
+                }
+                row++;
+            }
+            ByteArrayOutputStream valueBytes = new ByteArrayOutputStream();
+            DataOutputStream valueOutput = new DataOutputStream(valueBytes);
+            for (Map<String, Object> data : rows) {
+                Object value = data.get(columnName);
+                if (value != null) {
+                    writeValue(valueOutput, type, value);
+                }
+            }
+            valueOutput.flush();
+            columnsOutput.writeUTF(columnName);
+            columnsOutput.writeByte(type);
+            columnsOutput.write(nulls);
+            columnsOutput.writeInt(valueBytes.size());
+            valueBytes.writeTo(columnsOutput);
+        }
+
+        private void writeKey(Object key) throws IOException {
+            byte type = typeOf(key);
+            output.writeByte(type);
+            writeValue(output, type, key);
+        }
+
+        private void collectFileKey(Object key) {
+            if (!numericKeys) {
+                return;
+            }
+            Long number = toLong(key);
+            if (number == null) {
+                numericKeys = false;
+                minKey = null;
+                maxKey = null;
+                return;
+            }
+            minKey = minKey == null ? number : Math.min(minKey, number);
+            maxKey = maxKey == null ? number : Math.max(maxKey, number);
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * 文件内最小数值主键，主键不是整数时返回null
+         */
+        public Long getMinKey() {
+            return minKey;
+        }
+
+        /**
+         * 文件内最大数值主键，主键不是整数时返回null
+         */
+        public Long getMaxKey() {
+            return maxKey;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                output.writeInt(END_OF_FILE);
+                output.flush();
+                gzipOutput.finish();
+                gzipOutput.flush();
+                fileOutput.getFD().sync();
+            } finally {
+                IOUtils.closeQuietly(output);
+            }
+        }
+    }
+}
@@ -1,17 +1,21 @@
 package com.knight.core.context;
 
+import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * 拓展标准的PropertyPlaceholderConfigurer把属性文件中的配置参数放入到全局Map变量，便于其他接口访问key-value配置数据
+ * 属性数据以不可变Map快照整体发布到volatile变量，读取无锁且不会看到构建中的数据；
+ * 支持调用reload()从属性文件重新加载替换快照（已经注入到Bean中的占位符值不会改变）
  *
  * @author Rascal
  * Date: 2015/11/18
@@ -21,21 +25,72 @@ public class ExtPropertyPlaceholderConfigurer extends PropertyPlaceholderConfigu
 
     private static Logger logger = LoggerFactory.getLogger(ExtPropertyPlaceholderConfigurer.class);
 
-    private static Map<String, String> ctxPropertiesMap;
+    private static volatile ImmutableMap<String, String> ctxPropertiesMap = ImmutableMap.of();
+
+    /*重新加载完成后回调*/
+    private final List<Runnable> reloadListeners = new CopyOnWriteArrayList<>();
+
+    /*重新加载次数*/
+    private volatile long reloadCount;
+
+    /*最近一次重新加载耗时毫秒数*/
+    private volatile long lastReloadMillis;
+
+    /*最近一次重新加载完成时间戳*/
+    private volatile long lastReloadTime;
 
     @Override
     protected void processProperties(ConfigurableListableBeanFactory beanFactoryToProcess, Properties props) throws BeansException {
         super.processProperties(beanFactoryToProcess, props);
-        ctxPropertiesMap = new HashMap<String, String>();
         logger.info("Putting PropertyPlaceHolder {} datas into cache...", props.size());
-        for (Object key : props.keySet()){
-            String keyStr = key.toString();
-            String value = props.getProperty(keyStr);
-            ctxPropertiesMap.put(keyStr, value);
+        publish(props);
+    }
+
+    /**
+     * 从属性文件重新加载属性数据并替换快照，完成后回调已注册的重新加载监听器
+     */
+    public synchronized void reload() throws IOException {
+        long start = System.currentTimeMillis();
+        Properties props = mergeProperties();
+        convertProperties(props);
+        publish(props);
+        lastReloadTime = System.currentTimeMillis();
+        lastReloadMillis = lastReloadTime - start;
+        reloadCount++;
+        logger.info("Reloaded PropertyPlaceHolder {} datas in {} ms", props.size(), lastReloadMillis);
+        for (Runnable listener : reloadListeners) {
+            listener.run();
+        }
+    }
+
+    private void publish(Properties props) {
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (String key : props.stringPropertyNames()) {
+            builder.put(key, props.getProperty(key));
         }
+        ctxPropertiesMap = builder.build();
+    }
+
+    /**
+     * 注册属性重新加载完成监听器
+     */
+    public void addReloadListener(Runnable listener) {
+        reloadListeners.add(listener);
     }
 
     public String getProperty(String name){
         return ctxPropertiesMap.get(name);
     }
+
+    public long getReloadCount() {
+        return reloadCount;
+    }
+
+    public long getLastReloadMillis() {
+        return lastReloadMillis;
+    }
+
+    public long getLastReloadTime() {
+        return lastReloadTime;
+    }
 }
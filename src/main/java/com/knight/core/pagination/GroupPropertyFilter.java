@@ -9,6 +9,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.hibernate.service.spi.ServiceException;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -257,6 +258,28 @@ public class GroupPropertyFilter {
         return true;
     }
 
+    /**
+     * 构造组合条件的规范化签名字符串，同一组内条件顺序不影响签名，一般用于查询结果缓存key
+     */
+    public String buildSignature() {
+        List<String> filterSignatures = Lists.newArrayList();
+        for (PropertyFilter filter : filters) {
+            filterSignatures.add(filter.buildSignature());
+        }
+        for (GroupPropertyFilter group : groups) {
+            filterSignatures.add(group.buildSignature());
+        }
+        Collections.sort(filterSignatures);
+
+        List<String> forceAndSignatures = Lists.newArrayList();
+        for (PropertyFilter filter : forceAndFilters) {
+            forceAndSignatures.add(filter.buildSignature());
+        }
+        Collections.sort(forceAndSignatures);
+
+        return groupType + "(" + StringUtils.join(filterSignatures, ";") + ")&(" + StringUtils.join(forceAndSignatures, ";") + ")";
+    }
+
     /**
      * 转换为key-Vaule的Map结构数据
      */
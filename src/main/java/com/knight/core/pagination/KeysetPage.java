@@ -0,0 +1,149 @@
+package com.knight.core.pagination;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.knight.core.util.Encodes;
+import com.knight.core.util.reflection.ConvertUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.service.spi.ServiceException;
+import org.joda.time.DateTime;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 基于Keyset(Seek)方式的分页结果对象，以上一页最后一条记录的排序键值作为游标定位下一页
+ * 与OFFSET/LIMIT分页不同，无论翻到多深的页面查询代价都与第一页相同，适用于审计、附件等大表的连续翻页
+ * 游标为排序键值JSON数组的URL安全Base64编码，前端只需原样回传nextCursor即可
+ * <p>
+ * Date: 2026/10/18
+ * Time: 21:18
+ *
+ * @author Rascal
+ */
+public class KeysetPage<T> {
+
+    private static ObjectMapper objectMapper = new ObjectMapper();
+
+    /*当前页数据*/
+    private final List<T> content;
+
+    /*下一页游标，没有下一页则为null*/
+    private final String nextCursor;
+
+    /*每页记录数*/
+    private final int size;
+
+    public KeysetPage(List<T> content, String nextCursor, int size) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+        this.size = size;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * 把排序键值集合编码为游标字符串
+     */
+    public static String encodeCursor(List<Object> keys) {
+        try {
+            List<Object> jsonKeys = keys.stream().map(KeysetPage::toJsonValue).collect(Collectors.toList());
+            return Encodes.encodeUrlSafeBase64(objectMapper.writeValueAsBytes(jsonKeys));
+        } catch (Exception e) {
+            throw new ServiceException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把游标字符串解码为排序键值集合，并按排序属性类型转换
+     *
+     * @param cursor   游标字符串
+     * @param keyTypes 各排序属性对应的Java类型
+     */
+    public static List<Object> decodeCursor(String cursor, List<Class<?>> keyTypes) {
+        List<Object> jsonKeys;
+        try {
+            String json = new String(Encodes.decodeBase64(cursor), StandardCharsets.UTF_8);
+            jsonKeys = objectMapper.readValue(json, new TypeReference<List<Object>>() {
+            });
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无效分页游标: " + cursor, e);
+        }
+        if (jsonKeys.size() != keyTypes.size()) {
+            throw new IllegalArgumentException("分页游标与排序定义不匹配: " + cursor);
+        }
+        for (int i = 0; i < jsonKeys.size(); i++) {
+            jsonKeys.set(i, fromJsonValue(jsonKeys.get(i), keyTypes.get(i)));
+        }
+        return jsonKeys;
+    }
+
+    /**
+     * 排序键值转换为JSON值：Timestamp编码为[毫秒数, 纳秒数]保留亚毫秒精度，
+     * BigDecimal编码为字符串避免按浮点数解析丢失精度
+     */
+    private static Object toJsonValue(Object value) {
+        if (value instanceof Timestamp) {
+            return Arrays.asList(((Timestamp) value).getTime(), ((Timestamp) value).getNanos());
+        } else if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof DateTime) {
+            return ((DateTime) value).getMillis();
+        } else if (value instanceof BigDecimal) {
+            return value.toString();
+        } else if (value instanceof Enum) {
+            return ((Enum<?>) value).name();
+        }
+        return value;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object fromJsonValue(Object value, Class<?> type) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof List && Date.class.isAssignableFrom(type)) {
+            //Date类型属性查询返回的值也可能是Timestamp
+            List<?> parts = (List<?>) value;
+            if (parts.size() != 2) {
+                throw new IllegalArgumentException("无效时间戳游标值: " + value);
+            }
+            Timestamp timestamp = new Timestamp(((Number) parts.get(0)).longValue());
+            timestamp.setNanos(((Number) parts.get(1)).intValue());
+            return timestamp;
+        } else if (Timestamp.class.isAssignableFrom(type)) {
+            return new Timestamp(((Number) value).longValue());
+        } else if (Date.class.isAssignableFrom(type)) {
+            return new Date(((Number) value).longValue());
+        } else if (DateTime.class.isAssignableFrom(type)) {
+            return new DateTime(((Number) value).longValue());
+        } else if (BigDecimal.class.equals(type)) {
+            return new BigDecimal(String.valueOf(value));
+        } else if (type.isEnum()) {
+            return Enum.valueOf((Class<Enum>) type, String.valueOf(value));
+        } else if (type.isInstance(value)) {
+            return value;
+        }
+        String str = String.valueOf(value);
+        return StringUtils.isEmpty(str) ? str : ConvertUtils.convertStringToObject(str, type);
+    }
+}
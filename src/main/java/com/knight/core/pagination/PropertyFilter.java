@@ -1,12 +1,8 @@
 package com.knight.core.pagination;
 
-import com.knight.core.util.DateUtils;
 import com.knight.core.util.reflection.ConvertUtils;
 import org.apache.commons.lang3.BooleanUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.reflect.MethodUtils;
-import org.hibernate.mapping.Collection;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Pageable;
@@ -15,9 +11,6 @@ import org.springframework.util.Assert;
 
 import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
-import java.lang.reflect.Method;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.util.*;
 
@@ -144,6 +137,9 @@ public class PropertyFilter {
      */
     private Class subQueryCollectionPropertyType;
 
+    /*实体属性路径元数据，只有基于实体类型解析构造的过滤器才有值*/
+    private PropertyPath propertyPath;
+
     public PropertyFilter() {
     }
 
@@ -159,41 +155,21 @@ public class PropertyFilter {
         String propertyNameStr = StringUtils.substringAfter(filterName, "_");
         Assert.isTrue(StringUtils.isNotBlank(propertyNameStr), "filter名称" + filterName + "没有按规则编写，无法得到属性名称,");
         propertyNames = StringUtils.splitByWholeSeparator(propertyNameStr, PropertyFilter.OR_SEPARATOR);
-        try {
-            if (propertyNameStr.indexOf("count(") > -1) {
-                propertyClass = Integer.class;
-            } else if (propertyNameStr.indexOf("(") > -1) {
-                propertyClass = BigDecimal.class;
-            } else {
-                Method method = null;
-                String[] namesSplits = StringUtils.split(propertyNames[0], ".");
-                if (namesSplits.length == 1) {
-                    method = MethodUtils.getAccessibleMethod(entityClass, "get" + StringUtils.capitalize(propertyNames[0]));
-                } else {
-                    Class<?> retClass = entityClass;
-                    for (String nameSplit : namesSplits) {
-                        method = MethodUtils.getAccessibleMethod(retClass, "get" + StringUtils.capitalize(nameSplit));
-                        retClass = method.getReturnType();
-                        if (Collection.class.isAssignableFrom(retClass)) {
-                            Type genericReturnType = method.getGenericReturnType();
-                            if (genericReturnType instanceof ParameterizedType) {
-                                retClass = (Class<?>) ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
-                                subQueryCollectionPropertyType = retClass;
-                            }
-                        }
-                    }
-                }
-                propertyClass = method.getReturnType();
-            }
-        } catch (Exception e) {
-            throw new IllegalArgumentException("无效对象属性定义: " + entityClass + ":" + propertyNames[0], e);
+        if (propertyNameStr.indexOf("count(") > -1) {
+            propertyClass = Integer.class;
+        } else if (propertyNameStr.indexOf("(") > -1) {
+            propertyClass = BigDecimal.class;
+        } else {
+            propertyPath = PropertyPathRegistry.getPropertyPath(entityClass, propertyNames[0]);
+            propertyClass = propertyPath.getPropertyClass();
+            subQueryCollectionPropertyType = propertyPath.getSubQueryCollectionPropertyType();
         }
 
         if (values.length == 1) {
             if (matchType.equals(MatchType.IN) || matchType.equals(MatchType.NI)) {
                 String value = values[0];
                 values = value.split(",");
-            } else if (propertyClass.equals(Date.class) || propertyClass.equals(DateTime.class)) {
+            } else if (propertyPath != null && propertyPath.isDateType()) {
                 String value = values[0].trim();
                 value = value.replace("～", "~");
                 if (value.contains(" ")) {
@@ -223,12 +199,12 @@ public class PropertyFilter {
         if ("NULL".equalsIgnoreCase(value)) {
             return value;
         }
-        if (Enum.class.isAssignableFrom(propertyClass)) {
-            return Enum.valueOf(propertyClass, value);
+        if (propertyPath != null && propertyPath.getConverterType() == PropertyPath.ConverterType.ENUM) {
+            return propertyPath.convert(value);
         } else if (propertyClass.equals(Boolean.class) || matchType.equals(MatchType.NN) || matchType.equals(MatchType.NU)) {
             return new Boolean(BooleanUtils.toBoolean(value));
-        } else if (propertyClass.equals(Date.class)) {
-            return DateUtils.parseMultiFormatDate((String) value);
+        } else if (propertyPath != null) {
+            return propertyPath.convert(value);
         } else {
             return ConvertUtils.convertStringToObject(value, propertyClass);
         }
@@ -436,6 +412,22 @@ public class PropertyFilter {
         return new ArrayList<PropertyFilter>();
     }
 
+    /**
+     * 构造过滤条件的规范化签名字符串：比较类型、属性名称和比较值，一般用于查询结果缓存key
+     */
+    public String buildSignature() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(matchType).append(":").append(StringUtils.join(propertyNames, OR_SEPARATOR)).append("=");
+        if (matchValue != null && matchValue.getClass().isArray()) {
+            sb.append(Arrays.deepToString(new Object[]{matchValue}));
+        } else if (matchValue instanceof Date) {
+            sb.append(((Date) matchValue).getTime());
+        } else {
+            sb.append(matchValue);
+        }
+        return sb.toString();
+    }
+
     public Class getPropertyClass() {
         return propertyClass;
     }
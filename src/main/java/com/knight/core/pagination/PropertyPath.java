@@ -0,0 +1,93 @@
+package com.knight.core.pagination;
+
+import com.knight.core.util.DateUtils;
+import com.knight.core.util.reflection.ConvertUtils;
+import org.apache.commons.lang3.BooleanUtils;
+import org.joda.time.DateTime;
+
+import java.util.Date;
+
+/**
+ * 实体属性路径元数据：属性类型、集合子查询元素类型以及字符串比较值的转换方式
+ * 由PropertyPathRegistry统一解析缓存，PropertyFilter构造时直接复用
+ * <p>
+ * Date: 2026/10/18
+ * Time: 22:40
+ *
+ * @author Rascal
+ */
+public class PropertyPath {
+
+    /*字符串比较值转换方式*/
+    public enum ConverterType {
+        ENUM, BOOLEAN, DATE, DATETIME, DEFAULT
+    }
+
+    /*属性路径，如user.name*/
+    private final String path;
+
+    /*属性类型，如果路径经过集合属性则为集合元素对应属性的类型*/
+    private final Class propertyClass;
+
+    /*路径中集合属性的元素类型，用于集合子查询，没有则为null*/
+    private final Class subQueryCollectionPropertyType;
+
+    private final ConverterType converterType;
+
+    public PropertyPath(String path, Class propertyClass, Class subQueryCollectionPropertyType) {
+        this.path = path;
+        this.propertyClass = propertyClass;
+        this.subQueryCollectionPropertyType = subQueryCollectionPropertyType;
+        if (Enum.class.isAssignableFrom(propertyClass)) {
+            this.converterType = ConverterType.ENUM;
+        } else if (propertyClass.equals(Boolean.class)) {
+            this.converterType = ConverterType.BOOLEAN;
+        } else if (propertyClass.equals(Date.class)) {
+            this.converterType = ConverterType.DATE;
+        } else if (propertyClass.equals(DateTime.class)) {
+            this.converterType = ConverterType.DATETIME;
+        } else {
+            this.converterType = ConverterType.DEFAULT;
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public Class getPropertyClass() {
+        return propertyClass;
+    }
+
+    public Class getSubQueryCollectionPropertyType() {
+        return subQueryCollectionPropertyType;
+    }
+
+    public ConverterType getConverterType() {
+        return converterType;
+    }
+
+    /**
+     * 是否日期类型属性，日期类型比较值支持"~"分隔的区间写法
+     */
+    public boolean isDateType() {
+        return converterType == ConverterType.DATE || converterType == ConverterType.DATETIME;
+    }
+
+    /**
+     * 按属性类型把字符串比较值转换为对应类型对象
+     */
+    @SuppressWarnings("unchecked")
+    public Object convert(String value) {
+        switch (converterType) {
+            case ENUM:
+                return Enum.valueOf(propertyClass, value);
+            case BOOLEAN:
+                return BooleanUtils.toBoolean(value);
+            case DATE:
+                return DateUtils.parseMultiFormatDate(value);
+            default:
+                return ConvertUtils.convertStringToObject(value, propertyClass);
+        }
+    }
+}
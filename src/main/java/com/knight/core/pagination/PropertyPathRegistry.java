@@ -0,0 +1,142 @@
+package com.knight.core.pagination;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.PluralAttribute;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按实体类型缓存属性路径元数据，避免每次请求构造PropertyFilter时重复进行getter方法查找和泛型类型解析
+ * 应用启动时基于JPA Metamodel预热实体直接属性及关联对象属性，未预热到的路径首次访问时反射解析后缓存
+ * <p>
+ * Date: 2026/10/18
+ * Time: 22:45
+ *
+ * @author Rascal
+ */
+public class PropertyPathRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(PropertyPathRegistry.class);
+
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, PropertyPath>> registry = new ConcurrentHashMap<>();
+
+    /**
+     * 获取实体属性路径元数据
+     *
+     * @param entityClass 实体类型
+     * @param path        属性路径，如code、user.name、products.code
+     */
+    public static PropertyPath getPropertyPath(Class<?> entityClass, String path) {
+        ConcurrentMap<String, PropertyPath> paths = getEntityPaths(entityClass);
+        PropertyPath propertyPath = paths.get(path);
+        if (propertyPath == null) {
+            propertyPath = resolve(entityClass, path);
+            PropertyPath existing = paths.putIfAbsent(path, propertyPath);
+            if (existing != null) {
+                propertyPath = existing;
+            }
+        }
+        return propertyPath;
+    }
+
+    /**
+     * 基于JPA Metamodel预热所有实体的直接属性以及单层关联（含集合元素）属性路径
+     */
+    public static void warmUp(Metamodel metamodel) {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        for (ManagedType<?> managedType : metamodel.getManagedTypes()) {
+            Class<?> entityClass = managedType.getJavaType();
+            if (entityClass == null) {
+                continue;
+            }
+            ConcurrentMap<String, PropertyPath> paths = getEntityPaths(entityClass);
+            for (Attribute<?, ?> attribute : managedType.getAttributes()) {
+                String name = attribute.getName();
+                paths.putIfAbsent(name, new PropertyPath(name, attribute.getJavaType(), null));
+                count++;
+
+                Class<?> subQueryType = null;
+                Class<?> targetClass = attribute.getJavaType();
+                if (attribute instanceof PluralAttribute) {
+                    targetClass = ((PluralAttribute<?, ?, ?>) attribute).getElementType().getJavaType();
+                    subQueryType = targetClass;
+                } else if (!attribute.isAssociation()
+                        && attribute.getPersistentAttributeType() != Attribute.PersistentAttributeType.EMBEDDED) {
+                    continue;
+                }
+                ManagedType<?> targetType = findManagedType(metamodel, targetClass);
+                if (targetType == null) {
+                    continue;
+                }
+                for (Attribute<?, ?> targetAttribute : targetType.getAttributes()) {
+                    String path = name + "." + targetAttribute.getName();
+                    paths.putIfAbsent(path, new PropertyPath(path, targetAttribute.getJavaType(), subQueryType));
+                    count++;
+                }
+            }
+        }
+        logger.info("Warm up {} property paths from JPA metamodel in {} ms", count, System.currentTimeMillis() - start);
+    }
+
+    private static ManagedType<?> findManagedType(Metamodel metamodel, Class<?> javaType) {
+        try {
+            return metamodel.managedType(javaType);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static ConcurrentMap<String, PropertyPath> getEntityPaths(Class<?> entityClass) {
+        ConcurrentMap<String, PropertyPath> paths = registry.get(entityClass);
+        if (paths == null) {
+            paths = new ConcurrentHashMap<>();
+            ConcurrentMap<String, PropertyPath> existing = registry.putIfAbsent(entityClass, paths);
+            if (existing != null) {
+                paths = existing;
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * 基于getter方法反射解析属性路径，路径中的集合属性转换为集合元素类型并记录为集合子查询类型
+     */
+    private static PropertyPath resolve(Class<?> entityClass, String path) {
+        try {
+            Method method = null;
+            Class<?> subQueryCollectionPropertyType = null;
+            String[] namesSplits = StringUtils.split(path, ".");
+            if (namesSplits.length == 1) {
+                method = MethodUtils.getAccessibleMethod(entityClass, "get" + StringUtils.capitalize(path));
+            } else {
+                Class<?> retClass = entityClass;
+                for (String nameSplit : namesSplits) {
+                    method = MethodUtils.getAccessibleMethod(retClass, "get" + StringUtils.capitalize(nameSplit));
+                    retClass = method.getReturnType();
+                    if (Collection.class.isAssignableFrom(retClass)) {
+                        Type genericReturnType = method.getGenericReturnType();
+                        if (genericReturnType instanceof ParameterizedType) {
+                            retClass = (Class<?>) ((ParameterizedType) genericReturnType).getActualTypeArguments()[0];
+                            subQueryCollectionPropertyType = retClass;
+                        }
+                    }
+                }
+            }
+            return new PropertyPath(path, method.getReturnType(), subQueryCollectionPropertyType);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("无效对象属性定义: " + entityClass + ":" + path, e);
+        }
+    }
+}
@@ -1,22 +1,35 @@
 package com.knight.core.service;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.knight.core.annotation.MetaData;
 import com.knight.core.audit.envers.EntityRevision;
 import com.knight.core.audit.envers.ExtDefaultRevisionEntity;
 import com.knight.core.dao.jpa.BaseDao;
 import com.knight.core.pagination.GroupPropertyFilter;
+import com.knight.core.pagination.KeysetPage;
 import com.knight.core.pagination.PropertyFilter;
 import net.sf.ehcache.search.expression.Criteria;
+import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.apache.commons.lang3.reflect.MethodUtils;
+import org.hibernate.CacheMode;
+import org.hibernate.LockOptions;
 import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.SQLServerDialect;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.AuditReader;
 import org.hibernate.envers.AuditReaderFactory;
 import org.hibernate.envers.RevisionType;
 import org.hibernate.envers.query.AuditEntity;
@@ -24,6 +37,7 @@ import org.hibernate.envers.query.AuditQuery;
 import org.hibernate.internal.CriteriaImpl;
 import org.hibernate.loader.criteria.CriteriaJoinWalker;
 import org.hibernate.loader.criteria.CriteriaQueryTranslator;
+import org.hibernate.persister.entity.EntityPersister;
 import org.hibernate.persister.entity.OuterJoinLoadable;
 import org.hibernate.service.spi.ServiceException;
 import org.hibernate.transform.Transformers;
@@ -32,6 +46,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.*;
 import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 
@@ -39,10 +54,23 @@ import javax.persistence.*;
 import javax.persistence.criteria.*;
 import javax.persistence.criteria.CriteriaBuilder.Case;
 import java.io.Serializable;
-import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
 import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * Date: 2015/11/26
@@ -54,6 +82,19 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
 
     private static final Logger logger = LoggerFactory.getLogger(BaseService.class);
 
+    /*非Oracle/SQL Server数据库单条IN查询的默认主键个数*/
+    public static final int DEFAULT_IN_CHUNK_SIZE = 5000;
+
+    /*查询并行执行共享线程池*/
+    private static final ExecutorService QUERY_EXECUTOR = new ThreadPoolExecutor(
+            Math.min(4, Runtime.getRuntime().availableProcessors()), Math.min(4, Runtime.getRuntime().availableProcessors()),
+            60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(100),
+            new ThreadFactoryBuilder().setNameFormat("base-service-query-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    /*按数据库方言确定的单条IN查询主键个数*/
+    private volatile int inChunkSize;
+
     /*泛型对应的Class定义*/
     private Class<T> entityClass;
 
@@ -112,6 +153,7 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
 
     /**
      * 批量数据保存操作 其实现只是简单循环集合每个元素调用，因此并没有实际的Batch批量处理
+     * 大数据量导入场景请使用{@link #saveInBatch(Iterable, int)}
      */
     public List<T> save(Iterable<T> entities) {
         List<T> result = new ArrayList<>();
@@ -122,6 +164,68 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
         return result;
     }
 
+    /*批量保存默认每批记录数，与hibernate_jdbc_batch_size配置保持一致*/
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /**
+     * 批量数据保存操作，以默认批次大小提交
+     *
+     * @see #saveInBatch(Iterable, int)
+     */
+    @Transactional
+    public int saveInBatch(Iterable<T> entities) {
+        return saveInBatch(entities, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * 真正的JDBC批量数据保存操作，一般用于大数据量导入
+     * 新建对象persist，已有对象merge，依然会回调preInsert/preUpdate；每batchSize条执行flush和clear，
+     * 使Hibernate按hibernate.jdbc.batch_size合并为JDBC批处理语句，同时保持持久化上下文不会无限增长
+     * 注意：clear之后已保存对象均为游离态；native/identity主键生成策略下Hibernate无法对insert做JDBC批处理
+     *
+     * @param entities  待保存数据集合
+     * @param batchSize 每批flush/clear的记录数
+     * @return 实际保存的记录数
+     */
+    @Transactional
+    public int saveInBatch(Iterable<T> entities, int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        if (entities == null) {
+            return 0;
+        }
+        EntityManager em = getEntityManager();
+        int total = 0;
+        int pending = 0;
+        long batchStart = System.currentTimeMillis();
+        for (T entity : entities) {
+            if (entity.isNew()) {
+                preInsert(entity);
+                em.persist(entity);
+            } else {
+                preUpdate(entity);
+                em.merge(entity);
+            }
+            total++;
+            if (++pending >= batchSize) {
+                flushBatch(em, pending, total, batchStart);
+                pending = 0;
+                batchStart = System.currentTimeMillis();
+            }
+        }
+        if (pending > 0) {
+            flushBatch(em, pending, total, batchStart);
+        }
+        return total;
+    }
+
+    private void flushBatch(EntityManager em, int batchRows, int totalRows, long batchStart) {
+        em.flush();
+        em.clear();
+        long costMillis = Math.max(System.currentTimeMillis() - batchStart, 1);
+        logger.info("Batch saved {} rows of {} in {} ms ({} rows/s), total {}", batchRows, getEntityClass().getSimpleName(),
+                costMillis, batchRows * 1000L / costMillis, totalRows);
+    }
+
     /**
      * 基于主键查询单一数据对象
      */
@@ -165,11 +269,154 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
      */
     public List<T> findAll(final ID... ids) {
         Assert.isTrue(ids != null && ids.length > 0, "必须提供有效查询主键集合");
-        Specification<T> spec = (root, criteriaQuery, criteriaBuilder) -> {
+        int chunkSize = getInChunkSize();
+        if (ids.length <= chunkSize) {
+            return this.getEntityDao().findAll(buildIdInSpecification(Arrays.asList(ids)));
+        }
+        // 超出数据库IN参数个数限制则分批查询合并结果
+        List<T> entities = Lists.newArrayList();
+        for (List<ID> chunk : Lists.partition(Arrays.asList(ids), chunkSize)) {
+            entities.addAll(this.getEntityDao().findAll(buildIdInSpecification(chunk)));
+        }
+        return entities;
+    }
+
+    private Specification<T> buildIdInSpecification(final Collection<ID> ids) {
+        return (root, criteriaQuery, criteriaBuilder) -> {
             Path expression = root.get("id");
             return expression.in(ids);
         };
-        return this.getEntityDao().findAll(spec);
+    }
+
+    /**
+     * 基于主键集合批量加载数据对象，一般用于数千以上主键的大批量加载：
+     * 依次从当前持久化上下文、二级缓存获取，其余主键按数据库方言IN参数限制分批，多批次时在有界线程池并行查询，
+     * 返回结果按传入主键顺序排列（重复主键只返回一次，不存在的主键忽略）
+     * 返回对象均为当前EntityManager的托管对象：并行批次在独立EntityManager查询后，由调用线程以LockMode.NONE关联到当前会话，
+     * 不会再次查询数据库；注意并行批次看不到当前事务未flush的修改
+     *
+     * @param ids 主键集合
+     */
+    @Transactional(readOnly = true)
+    public List<T> findAllByIds(Collection<ID> ids) {
+        if (CollectionUtils.isEmpty(ids)) {
+            return Lists.newArrayList();
+        }
+        Set<ID> orderedIds = new LinkedHashSet<>(ids);
+        Map<Serializable, T> loaded = Maps.newHashMapWithExpectedSize(orderedIds.size());
+
+        // 优先当前持久化上下文，其次二级缓存
+        SessionImplementor session = getEntityManager().unwrap(SessionImplementor.class);
+        EntityPersister persister = session.getFactory().getEntityPersister(getEntityClass().getName());
+        javax.persistence.Cache secondLevelCache = getEntityManager().getEntityManagerFactory().getCache();
+        List<ID> missIds = Lists.newArrayList();
+        for (ID id : orderedIds) {
+            Object managed = session.getPersistenceContext().getEntity(session.generateEntityKey(id, persister));
+            if (managed != null) {
+                loaded.put(id, getEntityClass().cast(managed));
+                continue;
+            }
+            if (secondLevelCache != null && secondLevelCache.contains(getEntityClass(), id)) {
+                T entity = getEntityManager().find(getEntityClass(), id);
+                if (entity != null) {
+                    loaded.put(id, entity);
+                    continue;
+                }
+            }
+            missIds.add(id);
+        }
+
+        if (!missIds.isEmpty()) {
+            List<List<ID>> chunks = Lists.partition(missIds, getInChunkSize());
+            if (chunks.size() == 1) {
+                putById(loaded, getEntityDao().findAll(buildIdInSpecification(chunks.get(0))));
+            } else {
+                List<Future<List<T>>> futures = Lists.newArrayListWithCapacity(chunks.size());
+                for (final List<ID> chunk : chunks) {
+                    futures.add(getQueryExecutor().submit(() -> findByIdsDetached(chunk)));
+                }
+                Session hibernateSession = getEntityManager().unwrap(Session.class);
+                try {
+                    for (Future<List<T>> future : futures) {
+                        for (T entity : future.get()) {
+                            // 期间已被关联加载到当前会话的对象直接使用会话中的实例
+                            Object managed = session.getPersistenceContext().getEntity(session.generateEntityKey(entity.getId(), persister));
+                            if (managed != null) {
+                                loaded.put(entity.getId(), getEntityClass().cast(managed));
+                            } else {
+                                hibernateSession.buildLockRequest(LockOptions.NONE).lock(entity);
+                                loaded.put(entity.getId(), entity);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServiceException(e.getMessage(), e);
+                } catch (ExecutionException e) {
+                    throw new ServiceException(e.getMessage(), e.getCause());
+                }
+            }
+        }
+
+        List<T> entities = Lists.newArrayListWithCapacity(loaded.size());
+        for (ID id : orderedIds) {
+            T entity = loaded.get(id);
+            if (entity != null) {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    private void putById(Map<Serializable, T> loaded, List<T> entities) {
+        for (T entity : entities) {
+            loaded.put(entity.getId(), entity);
+        }
+    }
+
+    /**
+     * 使用独立EntityManager按主键集合查询，供并行批次调用
+     */
+    private List<T> findByIdsDetached(Collection<ID> ids) {
+        EntityManager em = getEntityManager().getEntityManagerFactory().createEntityManager();
+        try {
+            CriteriaBuilder builder = em.getCriteriaBuilder();
+            CriteriaQuery<T> criteriaQuery = builder.createQuery(getEntityClass());
+            Root<T> root = criteriaQuery.from(getEntityClass());
+            criteriaQuery.select(root).where(root.get("id").in(ids));
+            return em.createQuery(criteriaQuery).getResultList();
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * 单条IN查询允许的最大主键个数，按数据库方言确定：Oracle限制1000个表达式，SQL Server限制约2100个参数
+     * 子类可覆写调整
+     */
+    protected int getInChunkSize() {
+        if (inChunkSize == 0) {
+            int size = DEFAULT_IN_CHUNK_SIZE;
+            try {
+                Dialect dialect = getEntityManager().getEntityManagerFactory().unwrap(SessionFactoryImplementor.class).getDialect();
+                if (dialect instanceof Oracle8iDialect) {
+                    size = 1000;
+                } else if (dialect instanceof SQLServerDialect) {
+                    size = 2000;
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to detect dialect, use default IN chunk size {}", size);
+            }
+            inChunkSize = size;
+        }
+        return inChunkSize;
+    }
+
+    /**
+     * 查询并行执行线程池，有界队列，队列满时由调用线程直接执行以形成背压
+     */
+    protected ExecutorService getQueryExecutor() {
+        return QUERY_EXECUTOR;
     }
 
     /**
@@ -306,6 +553,270 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
         return findByPage(groupPropertyFilter, pageable).getContent();
     }
 
+    /**
+     * 基于动态组合条件对象查询指定属性投影数据，只查询所需列，不创建实体对象也不注册到持久化上下文
+     * 一般用于表格只显示少量列的场景，避免加载完整实体、延迟加载代理及审计相关属性
+     *
+     * @param groupPropertyFilter 动态组合条件
+     * @param sort                排序定义，可为null
+     * @param properties          投影属性路径，如code、user.name；关联对象属性以left join方式查询
+     * @return key为属性路径的Map集合
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> findProjection(GroupPropertyFilter groupPropertyFilter, Sort sort, String... properties) {
+        Assert.isTrue(properties != null && properties.length > 0, "必须提供有效投影属性集合");
+        List<Tuple> tuples = getEntityManager().createQuery(buildProjectionQuery(groupPropertyFilter, sort, properties)).getResultList();
+        return toProjectionMaps(tuples, properties);
+    }
+
+    /**
+     * 基于动态组合条件对象分页查询指定属性投影数据
+     *
+     * @see #findProjection(GroupPropertyFilter, Sort, String...)
+     */
+    @Transactional(readOnly = true)
+    public Page<Map<String, Object>> findProjectionByPage(GroupPropertyFilter groupPropertyFilter, Pageable pageable, String... properties) {
+        Assert.isTrue(properties != null && properties.length > 0, "必须提供有效投影属性集合");
+        TypedQuery<Tuple> query = getEntityManager().createQuery(buildProjectionQuery(groupPropertyFilter, pageable.getSort(), properties));
+        query.setFirstResult(pageable.getOffset());
+        query.setMaxResults(pageable.getPageSize());
+        List<Map<String, Object>> content = toProjectionMaps(query.getResultList(), properties);
+        long total;
+        if (content.size() < pageable.getPageSize() && (pageable.getOffset() == 0 || content.size() > 0)) {
+            total = pageable.getOffset() + content.size();
+        } else {
+            total = count(groupPropertyFilter);
+        }
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    /**
+     * 基于动态组合条件对象分页查询接口投影数据，投影属性取自接口getter方法，如getCode()对应code属性
+     * 返回对象为基于Map的接口动态代理，只支持实体直接属性
+     *
+     * @param projectionType 投影接口类型
+     */
+    @Transactional(readOnly = true)
+    public <P> Page<P> findProjectionByPage(Class<P> projectionType, GroupPropertyFilter groupPropertyFilter, Pageable pageable) {
+        String[] properties = ProjectionProxy.getProperties(projectionType);
+        Page<Map<String, Object>> page = findProjectionByPage(groupPropertyFilter, pageable, properties);
+        List<P> content = Lists.newArrayListWithCapacity(page.getContent().size());
+        for (Map<String, Object> row : page.getContent()) {
+            content.add(ProjectionProxy.create(projectionType, row));
+        }
+        return new PageImpl<>(content, pageable, page.getTotalElements());
+    }
+
+    private CriteriaQuery<Tuple> buildProjectionQuery(GroupPropertyFilter groupPropertyFilter, Sort sort, String[] properties) {
+        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteriaQuery = builder.createTupleQuery();
+        Root<T> root = criteriaQuery.from(getEntityClass());
+        Map<String, Join<?, ?>> joins = Maps.newHashMap();
+        List<Selection<?>> selections = Lists.newArrayListWithCapacity(properties.length);
+        for (String property : properties) {
+            selections.add(getProjectionPath(root, joins, property));
+        }
+        criteriaQuery.multiselect(selections);
+        Predicate predicate = buildPredicatesFromFilters(groupPropertyFilter, root, criteriaQuery, builder);
+        if (predicate != null) {
+            criteriaQuery.where(predicate);
+        }
+        if (sort != null) {
+            // 排序属性复用投影的left join，避免按关联属性排序时额外产生inner join过滤掉关联为空的记录
+            List<Order> orders = Lists.newArrayList();
+            for (Sort.Order order : sort) {
+                Path<?> path = getProjectionPath(root, joins, order.getProperty());
+                orders.add(order.isAscending() ? builder.asc(path) : builder.desc(path));
+            }
+            criteriaQuery.orderBy(orders);
+        }
+        return criteriaQuery;
+    }
+
+    /**
+     * 按属性路径取得投影表达式，路径中的关联对象以left join连接，相同关联路径共用同一个join
+     */
+    private Path<?> getProjectionPath(Root<T> root, Map<String, Join<?, ?>> joins, String property) {
+        String[] names = StringUtils.split(property, ".");
+        From<?, ?> from = root;
+        String joinPath = null;
+        for (int i = 0; i < names.length - 1; i++) {
+            joinPath = joinPath == null ? names[i] : joinPath + "." + names[i];
+            Join<?, ?> join = joins.get(joinPath);
+            if (join == null) {
+                join = from.join(names[i], JoinType.LEFT);
+                joins.put(joinPath, join);
+            }
+            from = join;
+        }
+        return from.get(names[names.length - 1]);
+    }
+
+    private List<Map<String, Object>> toProjectionMaps(List<Tuple> tuples, String[] properties) {
+        List<Map<String, Object>> rows = Lists.newArrayListWithCapacity(tuples.size());
+        for (Tuple tuple : tuples) {
+            Map<String, Object> row = new LinkedHashMap<>(properties.length * 2);
+            for (int i = 0; i < properties.length; i++) {
+                row.put(properties[i], tuple.get(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /*流式查询默认JDBC fetch size*/
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    /**
+     * 基于动态组合条件对象以只进游标方式流式处理数据，以默认fetch size抓取
+     *
+     * @see #streamByFilters(GroupPropertyFilter, Sort, int, Consumer)
+     */
+    @Transactional(readOnly = true)
+    public long streamByFilters(GroupPropertyFilter groupPropertyFilter, Sort sort, Consumer<T> consumer) {
+        return streamByFilters(groupPropertyFilter, sort, DEFAULT_FETCH_SIZE, consumer);
+    }
+
+    /**
+     * 基于动态组合条件对象以只进游标方式流式处理数据，一般用于大数据量导出等避免一次性加载全部结果集的场景
+     * 每条数据回调处理完成后即从持久化上下文移除，内存占用与匹配记录数无关
+     * 注意：MySQL驱动只有在fetchSize为Integer.MIN_VALUE时才会真正逐行流式读取
+     *
+     * @param groupPropertyFilter 动态组合条件对象
+     * @param sort                排序定义，可为null
+     * @param fetchSize           JDBC每次从数据库抓取的记录数
+     * @param consumer            单条数据处理回调，回调返回后对象即被detach
+     * @return 处理的记录总数
+     */
+    @Transactional(readOnly = true)
+    public long streamByFilters(GroupPropertyFilter groupPropertyFilter, Sort sort, int fetchSize, Consumer<T> consumer) {
+        Assert.notNull(consumer, "consumer is required");
+        CriteriaQuery<T> criteriaQuery = buildCriteriaQuery(groupPropertyFilter, sort);
+        org.hibernate.Query query = getEntityManager().createQuery(criteriaQuery).unwrap(org.hibernate.Query.class);
+        query.setFetchSize(fetchSize);
+        query.setReadOnly(true);
+        query.setCacheMode(CacheMode.IGNORE);
+
+        Session session = getEntityManager().unwrap(Session.class);
+        ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        long count = 0;
+        try {
+            while (results.next()) {
+                T entity = (T) results.get(0);
+                consumer.accept(entity);
+                session.evict(entity);
+                count++;
+            }
+        } finally {
+            results.close();
+        }
+        return count;
+    }
+
+    /**
+     * 基于动态组合条件对象的Keyset(Seek)分页查询，深度翻页与第一页代价相同
+     * 排序定义会自动追加id作为最后排序键以保证顺序唯一；排序属性值不能为null
+     *
+     * @param groupPropertyFilter 动态组合条件对象
+     * @param sort                排序定义，为null则按id升序
+     * @param size                每页记录数
+     * @param cursor              上一页返回的nextCursor，为空表示第一页
+     * @return 当前页数据及下一页游标
+     */
+    @Transactional(readOnly = true)
+    public KeysetPage<T> findByKeyset(GroupPropertyFilter groupPropertyFilter, Sort sort, int size, String cursor) {
+        Assert.isTrue(size > 0, "size must be positive");
+        List<Sort.Order> orders = Lists.newArrayList();
+        if (sort != null) {
+            sort.forEach(orders::add);
+        }
+        if (orders.stream().noneMatch(order -> "id".equals(order.getProperty()))) {
+            Sort.Direction direction = orders.isEmpty() ? Sort.Direction.ASC : orders.get(orders.size() - 1).getDirection();
+            orders.add(new Sort.Order(direction, "id"));
+        }
+
+        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<T> criteriaQuery = builder.createQuery(getEntityClass());
+        Root<T> root = criteriaQuery.from(getEntityClass());
+        List<Path<Comparable>> keyPaths = Lists.newArrayList();
+        for (Sort.Order order : orders) {
+            keyPaths.add((Path<Comparable>) buildExpression(root, builder, order.getProperty(), null));
+        }
+
+        List<Predicate> predicates = Lists.newArrayList();
+        Predicate filterPredicate = buildPredicatesFromFilters(groupPropertyFilter, root, criteriaQuery, builder);
+        if (filterPredicate != null) {
+            predicates.add(filterPredicate);
+        }
+        if (StringUtils.isNotBlank(cursor)) {
+            List<Class<?>> keyTypes = Lists.newArrayList();
+            keyPaths.forEach(path -> keyTypes.add(path.getJavaType()));
+            List<Object> keys = KeysetPage.decodeCursor(cursor, keyTypes);
+            predicates.add(buildKeysetPredicate(builder, orders, keyPaths, keys));
+        }
+        if (!predicates.isEmpty()) {
+            criteriaQuery.where(predicates.toArray(new Predicate[predicates.size()]));
+        }
+        criteriaQuery.orderBy(QueryUtils.toOrders(new Sort(orders), root, builder));
+
+        //多取一条用于判断是否存在下一页
+        List<T> content = getEntityManager().createQuery(criteriaQuery).setMaxResults(size + 1).getResultList();
+        String nextCursor = null;
+        if (content.size() > size) {
+            content = Lists.newArrayList(content.subList(0, size));
+            T last = content.get(size - 1);
+            List<Object> lastKeys = Lists.newArrayList();
+            try {
+                for (Sort.Order order : orders) {
+                    lastKeys.add(PropertyUtils.getProperty(last, order.getProperty()));
+                }
+            } catch (Exception e) {
+                throw new ServiceException(e.getMessage(), e);
+            }
+            nextCursor = KeysetPage.encodeCursor(lastKeys);
+        }
+        return new KeysetPage<T>(content, nextCursor, size);
+    }
+
+    /**
+     * 把排序定义转换为组合比较条件：(k1 > v1) OR (k1 = v1 AND k2 > v2) OR ...，降序属性使用小于比较
+     */
+    private Predicate buildKeysetPredicate(CriteriaBuilder builder, List<Sort.Order> orders, List<Path<Comparable>> keyPaths,
+                                           List<Object> keys) {
+        List<Predicate> orPredicates = Lists.newArrayList();
+        for (int i = 0; i < orders.size(); i++) {
+            List<Predicate> andPredicates = Lists.newArrayList();
+            for (int j = 0; j < i; j++) {
+                andPredicates.add(builder.equal(keyPaths.get(j), keys.get(j)));
+            }
+            Comparable key = (Comparable) keys.get(i);
+            if (orders.get(i).isAscending()) {
+                andPredicates.add(builder.greaterThan(keyPaths.get(i), key));
+            } else {
+                andPredicates.add(builder.lessThan(keyPaths.get(i), key));
+            }
+            orPredicates.add(builder.and(andPredicates.toArray(new Predicate[andPredicates.size()])));
+        }
+        return builder.or(orPredicates.toArray(new Predicate[orPredicates.size()]));
+    }
+
+    /**
+     * 基于动态组合条件对象和排序定义组装泛型实体的JPA标准查询对象
+     */
+    private CriteriaQuery<T> buildCriteriaQuery(GroupPropertyFilter groupPropertyFilter, Sort sort) {
+        CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<T> criteriaQuery = builder.createQuery(getEntityClass());
+        Root<T> root = criteriaQuery.from(getEntityClass());
+        Predicate predicate = buildPredicatesFromFilters(groupPropertyFilter, root, criteriaQuery, builder);
+        if (predicate != null) {
+            criteriaQuery.where(predicate);
+        }
+        if (sort != null) {
+            criteriaQuery.orderBy(QueryUtils.toOrders(sort, root, builder));
+        }
+        return criteriaQuery;
+    }
+
     /**
      * 基于动态组合条件对象和分页（含排序）对象查询数据集合
      */
@@ -435,8 +946,95 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
             mapDatas.add(data);
         }
 
-        //TODO: 目前有个限制未实现总记录数处理，直接返回一个固定大数字
-        return new PageImpl<Map<String, Object>>(mapDatas, pageable, Integer.MAX_VALUE);
+        if (pageable == null) {
+            return new PageImpl<Map<String, Object>>(mapDatas);
+        }
+        //首页且不足一页则无需额外count查询
+        if (pageable.getOffset() == 0 && mapDatas.size() < pageable.getPageSize()) {
+            return new PageImpl<Map<String, Object>>(mapDatas, pageable, mapDatas.size());
+        }
+        final boolean hasHaving = having != null;
+        String countKey = clazz.getName() + "|" + StringUtils.join(properties, ",") + "|"
+                + (groupFilter == null ? "" : groupFilter.buildSignature());
+        long total = getCachedCount(countKey, () -> countGroupAggregate(clazz, groupFilter, groupProperties, hasHaving));
+        return new PageImpl<Map<String, Object>>(mapDatas, pageable, total);
+    }
+
+    /**
+     * 计算分组统计的总分组数：
+     * 单一分组属性且无having条件时以count(distinct)计算分组数，并补上NULL值分组；
+     * 多属性分组或带having条件时，以子查询按相同where、group by及having条件取每个分组的最小主键，再统计主键个数，
+     * 每个分组恰好对应一个主键，统计结果即为精确分组数
+     */
+    private long countGroupAggregate(Class clazz, GroupPropertyFilter groupFilter, List<GroupAggregateProperty> groupProperties,
+                                     boolean having) {
+        if (groupProperties.isEmpty() && !having) {
+            return 1;
+        }
+        CriteriaBuilder criteriaBuilder = getEntityManager().getCriteriaBuilder();
+        CriteriaQuery<Long> countQuery = criteriaBuilder.createQuery(Long.class);
+        Root<?> root = countQuery.from(clazz);
+        if (groupProperties.size() == 1 && !having) {
+            Expression<?> groupExpression = buildExpression(root, criteriaBuilder, groupProperties.get(0).getName(), null);
+            Expression<Long> nullGroup = criteriaBuilder.max(criteriaBuilder.<Long>selectCase()
+                    .when(criteriaBuilder.isNull(groupExpression), 1L).otherwise(0L));
+            countQuery.select(criteriaBuilder.sum(criteriaBuilder.countDistinct(groupExpression), nullGroup));
+            Predicate where = buildPredicatesFromFilters(groupFilter, root, countQuery, criteriaBuilder, false);
+            if (where != null) {
+                countQuery.where(where);
+            }
+        } else {
+            Subquery groupQuery = countQuery.subquery(Object.class);
+            Root<?> groupRoot = groupQuery.from(clazz);
+            Path groupId = groupRoot.get("id");
+            groupQuery.select(criteriaBuilder.least(groupId));
+            Predicate where = buildPredicatesFromFilters(groupFilter, groupRoot, countQuery, criteriaBuilder, false);
+            if (where != null) {
+                groupQuery.where(where);
+            }
+            if (!groupProperties.isEmpty()) {
+                groupQuery.groupBy(buildExpressions(groupRoot, criteriaBuilder, groupProperties));
+            }
+            Predicate havingPredicate = buildPredicatesFromFilters(groupFilter, groupRoot, countQuery, criteriaBuilder, true);
+            if (havingPredicate != null) {
+                groupQuery.having(havingPredicate);
+            }
+            countQuery.select(criteriaBuilder.count(root)).where(root.get("id").in(groupQuery));
+        }
+        Long count = getEntityManager().createQuery(countQuery).getSingleResult();
+        return count == null ? 0 : count;
+    }
+
+    /*count结果缓存默认有效秒数*/
+    private static final long DEFAULT_COUNT_CACHE_SECONDS = 60;
+
+    /*count结果缓存，key为实体类型加规范化查询条件签名*/
+    private volatile Cache<String, Long> countCache;
+
+    /**
+     * count结果缓存有效秒数，子类可根据数据变化频率覆写
+     */
+    protected long getCountCacheSeconds() {
+        return DEFAULT_COUNT_CACHE_SECONDS;
+    }
+
+    /**
+     * 在有效期内复用相同key的count结果，避免翻页时每页都重复执行代价较高的count查询
+     */
+    protected long getCachedCount(String key, Callable<Long> counter) {
+        if (countCache == null) {
+            synchronized (this) {
+                if (countCache == null) {
+                    countCache = CacheBuilder.newBuilder().maximumSize(1000)
+                            .expireAfterWrite(getCountCacheSeconds(), TimeUnit.SECONDS).build();
+                }
+            }
+        }
+        try {
+            return countCache.get(key, counter);
+        } catch (ExecutionException e) {
+            throw new ServiceException(e.getMessage(), e.getCause());
+        }
     }
 
     /**
@@ -481,6 +1079,127 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
         return new PageImpl<Map>(query.getResultList(), pageable, Long.valueOf(count.toString()));
     }
 
+    /**
+     * 基于Native SQL和分页对象查询数据集合的优化版本：
+     * count查询在并行线程与分页数据查询同时执行；如果当前页数据不满一页则直接计算总记录数，
+     * 并通过Statement.cancel()取消数据库端仍在执行的count语句（不中断count线程，避免中断信号破坏JDBC连接状态）；
+     * cacheCount为true时相同SQL的count结果在getCountCacheSeconds()时间内复用
+     * 注意：count查询使用独立EntityManager执行，看不到当前事务未提交的数据；
+     * 分页语句仍由Hibernate方言生成（见buildNativePageQuery），未另行改写为窗口函数分页
+     *
+     * @param pageable   分页（不含排序，排序直接在native SQL中定义）对象
+     * @param sql        Native SQL（自行组装好动态条件的原生SQL语句，不含order by部分）
+     * @param orderBy    order by排序部分，可为null
+     * @param cacheCount 是否缓存复用count结果，适用于数据变化不敏感的大表列表翻页
+     * @return Map结构的集合分页对象
+     */
+    @Transactional(readOnly = true)
+    public Page<Map> findByPageNativeSQL(Pageable pageable, final String sql, String orderBy, boolean cacheCount) {
+        final AtomicReference<Statement> countStatement = new AtomicReference<Statement>();
+        Callable<Long> counter = () -> countByNativeSQL(sql, countStatement);
+        if (cacheCount) {
+            final Callable<Long> nativeCounter = counter;
+            counter = () -> getCachedCount("native:" + sql, nativeCounter);
+        }
+        Future<Long> countFuture = getQueryExecutor().submit(counter);
+        try {
+            List<Map> content = buildNativePageQuery(sql, orderBy, pageable.getOffset(), pageable.getPageSize()).getResultList();
+            if (content.size() < pageable.getPageSize() && (pageable.getOffset() == 0 || content.size() > 0)) {
+                cancelCount(countFuture, countStatement);
+                return new PageImpl<Map>(content, pageable, pageable.getOffset() + content.size());
+            }
+            return new PageImpl<Map>(content, pageable, countFuture.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            throw new ServiceException(e.getMessage(), e.getCause());
+        } finally {
+            cancelCount(countFuture, countStatement);
+        }
+    }
+
+    /**
+     * 取消尚未完成的count查询：未开始执行的任务直接取消，已在执行的语句由数据库端取消
+     */
+    private void cancelCount(Future<Long> countFuture, AtomicReference<Statement> countStatement) {
+        if (countFuture.isDone()) {
+            return;
+        }
+        countFuture.cancel(false);
+        synchronized (countStatement) {
+            Statement statement = countStatement.get();
+            if (statement != null) {
+                try {
+                    statement.cancel();
+                } catch (SQLException e) {
+                    logger.debug("Cancel native count query failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 基于Native SQL和分页对象查询数据切片，不执行count查询，多取一条记录判断是否存在下一页
+     * 适用于"加载更多"、无需显示总页数的列表场景
+     *
+     * @param pageable 分页（不含排序，排序直接在native SQL中定义）对象
+     * @param sql      Native SQL（自行组装好动态条件的原生SQL语句，不含order by部分）
+     * @param orderBy  order by排序部分，可为null
+     * @return Map结构的集合切片对象
+     */
+    @Transactional(readOnly = true)
+    public Slice<Map> findSliceByNativeSQL(Pageable pageable, String sql, String orderBy) {
+        List<Map> content = buildNativePageQuery(sql, orderBy, pageable.getOffset(), pageable.getPageSize() + 1).getResultList();
+        boolean hasNext = content.size() > pageable.getPageSize();
+        if (hasNext) {
+            content = content.subList(0, pageable.getPageSize());
+        }
+        return new SliceImpl<Map>(content, pageable, hasNext);
+    }
+
+    /**
+     * 构造Native SQL分页查询，分页语句由Hibernate方言生成：
+     * 如SQL Server 2005+方言使用ROW_NUMBER() OVER窗口函数，Oracle方言使用ROWNUM嵌套查询，MySQL方言使用LIMIT
+     */
+    private Query buildNativePageQuery(String sql, String orderBy, int offset, int maxResults) {
+        Query query = getEntityManager().createNativeQuery(StringUtils.isNotBlank(orderBy) ? sql + " " + orderBy : sql);
+        query.unwrap(SQLQuery.class).setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
+        query.setFirstResult(offset);
+        query.setMaxResults(maxResults);
+        return query;
+    }
+
+    /**
+     * 使用独立EntityManager执行Native SQL count查询，供并行count调用
+     * 执行期间的Statement登记到countStatement，供调用方取消
+     */
+    private Long countByNativeSQL(final String sql, final AtomicReference<Statement> countStatement) {
+        EntityManager em = getEntityManager().getEntityManagerFactory().createEntityManager();
+        try {
+            return em.unwrap(Session.class).doReturningWork(connection -> {
+                PreparedStatement statement = connection.prepareStatement("select count(*) from (" + sql + ") cnt");
+                try {
+                    synchronized (countStatement) {
+                        countStatement.set(statement);
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        resultSet.next();
+                        return resultSet.getLong(1);
+                    }
+                } finally {
+                    // 先解除登记再关闭，保证不会对已归还连接池的连接发出取消
+                    synchronized (countStatement) {
+                        countStatement.set(null);
+                    }
+                    statement.close();
+                }
+            });
+        } finally {
+            em.close();
+        }
+    }
+
     /**
      * 基于JPA通用的查询条件count记录数据
      */
@@ -519,8 +1238,8 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
                 }
 
                 // Hack for Bug: https://jira.springsource.org/browse/DATAJPA-105
-                // 如果是在count计算总记录，则添加join；否则说明正常分页查询添加fetch
-                if (!Long.class.isAssignableFrom(query.getResultType())) {
+                // 只有查询结果为实体对象时才添加fetch；count计算总记录、投影及分组统计查询只添加join
+                if (root.getJavaType().equals(query.getResultType())) {
                     root.fetch(names[0], joinType);
                 } else {
                     root.join(names[0], joinType);
@@ -539,8 +1258,8 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
                 }
 
                 // Hack for Bug: https://jira.springsource.org/browse/DATAJPA-105
-                // 如果是在count计算总记录，则添加join；否则说明正常分页查询添加fetch
-                if (!Long.class.isAssignableFrom(query.getResultType())) {
+                // 只有查询结果为实体对象时才添加fetch；count计算总记录、投影及分组统计查询只添加join
+                if (root.getJavaType().equals(query.getResultType())) {
                     Fetch fetch = root.fetch(names[0], joinTypes[0]);
                     for (int i = 1; i < names.length; i++) {
                         fetch.fetch(names[i], joinTypes[i]);
@@ -1004,6 +1723,8 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
                 entityRevision.setRevisionType((RevisionType) itemArray[2]);
                 entityRevisions.add(entityRevision);
             }
+            //一次加载各版本审计集合属性的元素主键
+            EntityRevision.loadCollectionIds(getEntityManager(), getEntityClass(), (Serializable) id, entityRevisions);
         }
         return entityRevisions;
     }
@@ -1026,10 +1747,78 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
                 entityRevision.setRevisionType((RevisionType) itemArray[2]);
                 entityRevisions.add(entityRevision);
             }
+            //一次加载各版本审计集合属性的元素主键
+            EntityRevision.loadCollectionIds(getEntityManager(), getEntityClass(), (Serializable) id, entityRevisions);
         }
         return entityRevisions;
     }
 
+    /**
+     * 分页查询对象历史版本元数据，只查询版本号、操作类型及版本记录ExtDefaultRevisionEntity，
+     * 不加载各版本的历史实体状态（返回对象entity属性为空），需要时通过findEntityRevision按版本号单独加载
+     *
+     * @param id        实体主键
+     * @param startDate 版本时间起始（包含），为空不限制
+     * @param endDate   版本时间截止（不包含），为空不限制
+     * @param pageable  分页参数，排序固定为版本号倒序
+     */
+    @Transactional(readOnly = true)
+    public Page<EntityRevision> findEntityRevisions(final ID id, Date startDate, Date endDate, Pageable pageable) {
+        AuditReader auditReader = AuditReaderFactory.get(getEntityManager());
+
+        AuditQuery countQuery = auditReader.createQuery().forRevisionsOfEntity(getEntityClass(), false, true)
+                .addProjection(AuditEntity.revisionNumber().count());
+        addRevisionCriterions(countQuery, id, startDate, endDate);
+        long total = ((Number) countQuery.getSingleResult()).longValue();
+        if (total == 0 || pageable.getOffset() >= total) {
+            return new PageImpl<>(Collections.<EntityRevision>emptyList(), pageable, total);
+        }
+
+        AuditQuery auditQuery = auditReader.createQuery().forRevisionsOfEntity(getEntityClass(), false, true)
+                .addProjection(AuditEntity.revisionNumber()).addProjection(AuditEntity.revisionType())
+                .addOrder(AuditEntity.revisionNumber().desc());
+        addRevisionCriterions(auditQuery, id, startDate, endDate);
+        auditQuery.setFirstResult(pageable.getOffset()).setMaxResults(pageable.getPageSize());
+        List list = auditQuery.getResultList();
+
+        Set<Number> revs = new LinkedHashSet<>();
+        for (Object obj : list) {
+            revs.add((Number) ((Object[]) obj)[0]);
+        }
+        //一次查询取回当前页全部版本记录
+        Map<Number, ExtDefaultRevisionEntity> revisionEntities = auditReader.findRevisions(ExtDefaultRevisionEntity.class, revs);
+        List<EntityRevision> entityRevisions = Lists.newArrayListWithCapacity(list.size());
+        for (Object obj : list) {
+            Object[] itemArray = (Object[]) obj;
+            EntityRevision entityRevision = new EntityRevision();
+            entityRevision.setRevisionEntity(revisionEntities.get((Number) itemArray[0]));
+            entityRevision.setRevisionType((RevisionType) itemArray[1]);
+            entityRevisions.add(entityRevision);
+        }
+        return new PageImpl<>(entityRevisions, pageable, total);
+    }
+
+    private void addRevisionCriterions(AuditQuery auditQuery, ID id, Date startDate, Date endDate) {
+        auditQuery.add(AuditEntity.id().eq(id));
+        if (startDate != null) {
+            auditQuery.add(AuditEntity.revisionProperty("revstmp").ge(startDate));
+        }
+        if (endDate != null) {
+            auditQuery.add(AuditEntity.revisionProperty("revstmp").lt(endDate));
+        }
+    }
+
+    /**
+     * 按版本号加载单个历史版本，包含该版本的完整实体状态
+     *
+     * @return 版本不存在返回null
+     */
+    @Transactional(readOnly = true)
+    public EntityRevision findEntityRevision(final ID id, Number rev) {
+        List<EntityRevision> entityRevisions = findEntityRevisions(id, rev);
+        return entityRevisions.isEmpty() ? null : entityRevisions.get(0);
+    }
+
     /**
      * 供子类调用的关联对象关联关系操作辅助方法
      *
@@ -1043,90 +1832,14 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
                                     R2OperationEnum op) {
         try {
             T entity = findOne(id);
-            List oldR2s = (List) FieldUtils.readDeclaredField(entity, r2PropertyName, true);
-
-            Field r2field = FieldUtils.getField(getEntityClass(), r2PropertyName, true);
-            Class r2Class = (Class) (((ParameterizedType) r2field.getGenericType()).getActualTypeArguments()[0]);
-            Field entityField = null;
-            Field[] fields = r2Class.getDeclaredFields();
-            for (Field field : fields) {
-                if (field.getType().equals(getEntityClass())) {
-                    entityField = field;
-                    break;
-                }
-            }
-
-            Field r2EntityField = FieldUtils.getField(r2Class, r2EntityPropertyName, true);
-            Class r2EntityClass = r2EntityField.getType();
-
-            if (R2OperationEnum.update.equals(op)) {
-                if (CollectionUtils.isEmpty(r2EntityIds) && !CollectionUtils.isEmpty(oldR2s)) {
-                    oldR2s.clear();
-                }
-            }
-
-            if (R2OperationEnum.update.equals(op) || R2OperationEnum.add.equals(op)) {
-                // 双循环处理需要新增关联的项目
-                for (Serializable r2EntityId : r2EntityIds) {
-                    Object r2Entity = getEntityManager().find(r2EntityClass, r2EntityId);
-                    boolean tobeAdd = true;
-                    for (Object r2 : oldR2s) {
-                        if (FieldUtils.readDeclaredField(r2, r2EntityPropertyName, true).equals(r2Entity)) {
-                            tobeAdd = false;
-                            break;
-                        }
-                    }
-                    if (tobeAdd) {
-                        Object newR2 = r2Class.newInstance();
-                        FieldUtils.writeDeclaredField(newR2, r2EntityField.getName(), r2Entity, true);
-                        FieldUtils.writeDeclaredField(newR2, entityField.getName(), entity, true);
-                        oldR2s.add(newR2);
-                    }
-                }
-            }
-
-            if (R2OperationEnum.update.equals(op)) {
-                // 双循环处理需要删除关联的项目
-                List tobeDleteList = Lists.newArrayList();
-                for (Object r2 : oldR2s) {
-                    boolean tobeDlete = true;
-                    for (Serializable r2EntityId : r2EntityIds) {
-                        Object r2Entity = getEntityManager().find(r2EntityClass, r2EntityId);
-                        if (FieldUtils.readDeclaredField(r2, r2EntityPropertyName, true).equals(r2Entity)) {
-                            tobeDlete = false;
-                            break;
-                        }
-                    }
-                    if (tobeDlete) {
-                        tobeDleteList.add(r2);
-                    }
-                }
-                oldR2s.removeAll(tobeDleteList);
-            }
-
-            if (R2OperationEnum.delete.equals(op)) {
-                // 双循环处理需要删除关联的项目
-                List tobeDleteList = Lists.newArrayList();
-                for (Object r2 : oldR2s) {
-                    boolean tobeDlete = false;
-                    for (Serializable r2EntityId : r2EntityIds) {
-                        Object r2Entity = getEntityManager().find(r2EntityClass, r2EntityId);
-                        if (FieldUtils.readDeclaredField(r2, r2EntityPropertyName, true).equals(r2Entity)) {
-                            tobeDlete = true;
-                            break;
-                        }
-                    }
-                    if (tobeDlete) {
-                        tobeDleteList.add(r2);
-                    }
-                }
-                oldR2s.removeAll(tobeDleteList);
-            }
-
+            R2Relation relation = R2Relation.of(getEntityClass(), r2PropertyName, r2EntityPropertyName);
+            syncRelatedR2s(entity, relation.readR2s(entity), r2EntityIds, relation, op);
         } catch (SecurityException e) {
             throw new ServiceException(e.getMessage(), e);
         } catch (IllegalAccessException e) {
             throw new ServiceException(e.getMessage(), e);
+        } catch (InvocationTargetException e) {
+            throw new ServiceException(e.getMessage(), e);
         } catch (InstantiationException e) {
             throw new ServiceException(e.getMessage(), e);
         }
@@ -1142,71 +1855,71 @@ public abstract class BaseService<T extends Persistable<? extends Serializable>,
      */
     protected void updateRelatedR2s(T entity, Serializable[] r2EntityIds, String r2PropertyName, String r2EntityPropertyName) {
         try {
-            List oldR2s = (List) MethodUtils.invokeExactMethod(entity, "get" + StringUtils.capitalize(r2PropertyName), null);
-            if (oldR2s == null) {
-                oldR2s = Lists.newArrayList();
-                FieldUtils.writeDeclaredField(entity, r2PropertyName, oldR2s, true);
-            }
-            if ((r2EntityIds == null || r2EntityIds.length == 0)) {
+            R2Relation relation = R2Relation.of(getEntityClass(), r2PropertyName, r2EntityPropertyName);
+            List oldR2s = relation.readR2s(entity);
+            List<Serializable> ids = r2EntityIds == null ? Collections.<Serializable>emptyList() : Arrays.asList(r2EntityIds);
+            syncRelatedR2s(entity, oldR2s, ids, relation, R2OperationEnum.update);
+        } catch (Exception e) {
+            throw new ServiceException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 基于主键集合比对同步R2关联集合：已有关联和目标关联均转换为被关联对象主键HashSet进行差集计算，
+     * 需要新增的被关联对象通过IN查询按getInChunkSize()分批加载，集合变更在flush时由Hibernate按jdbc batch批量执行insert/delete
+     */
+    private void syncRelatedR2s(T entity, List oldR2s, Collection<? extends Serializable> r2EntityIds, R2Relation relation,
+                                R2OperationEnum op) throws IllegalAccessException, InstantiationException {
+        Set<Serializable> targetIds = r2EntityIds == null ? Collections.<Serializable>emptySet() : new HashSet<Serializable>(r2EntityIds);
+
+        if (R2OperationEnum.update.equals(op) || R2OperationEnum.delete.equals(op)) {
+            if (R2OperationEnum.update.equals(op) && targetIds.isEmpty()) {
                 if (!CollectionUtils.isEmpty(oldR2s)) {
                     oldR2s.clear();
                 }
-            } else {
-                Field r2field = FieldUtils.getField(getEntityClass(), r2PropertyName, true);
-                Class r2Class = (Class) (((ParameterizedType) r2field.getGenericType()).getActualTypeArguments()[0]);
-                Field entityField = null;
-                Field[] fields = r2Class.getDeclaredFields();
-                for (Field field : fields) {
-                    if (field.getType().equals(getEntityClass())) {
-                        entityField = field;
-                        break;
+                return;
+            }
+            if (CollectionUtils.isNotEmpty(oldR2s)) {
+                boolean keepMatched = R2OperationEnum.update.equals(op);
+                Iterator iterator = oldR2s.iterator();
+                while (iterator.hasNext()) {
+                    if (targetIds.contains(relation.getR2EntityId(iterator.next())) != keepMatched) {
+                        iterator.remove();
                     }
                 }
+            }
+        }
 
-                Field r2EntityField = FieldUtils.getField(r2Class, r2EntityPropertyName, true);
-                Class r2EntityClass = r2EntityField.getType();
-
-                // 双循环处理需要删除关联的项目
-                if (CollectionUtils.isNotEmpty(oldR2s)) {
-                    List tobeDleteList = Lists.newArrayList();
-                    for (Object r2 : oldR2s) {
-                        boolean tobeDlete = true;
-                        for (Serializable r2EntityId : r2EntityIds) {
-                            Object r2Entity = getEntityManager().find(r2EntityClass, r2EntityId);
-                            if (FieldUtils.readDeclaredField(r2, r2EntityPropertyName, true).equals(r2Entity)) {
-                                tobeDlete = false;
-                                break;
-                            }
-                        }
-                        if (tobeDlete) {
-                            tobeDleteList.add(r2);
-                        }
-                    }
-                    oldR2s.removeAll(tobeDleteList);
-                }
+        if (R2OperationEnum.update.equals(op) || R2OperationEnum.add.equals(op)) {
+            Set<Serializable> existIds = new HashSet<>();
+            for (Object r2 : oldR2s) {
+                existIds.add(relation.getR2EntityId(r2));
+            }
+            Set<Serializable> toAddIds = new LinkedHashSet<>(r2EntityIds);
+            toAddIds.removeAll(existIds);
+            if (toAddIds.isEmpty()) {
+                return;
+            }
 
-                // 双循环处理需要新增关联的项目
-                for (Serializable r2EntityId : r2EntityIds) {
-                    Object r2Entity = getEntityManager().find(r2EntityClass, r2EntityId);
-                    boolean tobeAdd = true;
-                    if (CollectionUtils.isNotEmpty(oldR2s)) {
-                        for (Object r2 : oldR2s) {
-                            if (FieldUtils.readDeclaredField(r2, r2EntityPropertyName, true).equals(r2Entity)) {
-                                tobeAdd = false;
-                                break;
-                            }
-                        }
-                    }
-                    if (tobeAdd) {
-                        Object newR2 = r2Class.newInstance();
-                        FieldUtils.writeDeclaredField(newR2, r2EntityField.getName(), r2Entity, true);
-                        FieldUtils.writeDeclaredField(newR2, entityField.getName(), entity, true);
-                        oldR2s.add(newR2);
-                    }
+            // 超出数据库IN参数个数限制则分批加载
+            CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+            Map<Serializable, Object> r2EntityMap = Maps.newHashMapWithExpectedSize(toAddIds.size());
+            for (List<Serializable> chunk : Lists.partition(Lists.newArrayList(toAddIds), getInChunkSize())) {
+                CriteriaQuery criteriaQuery = builder.createQuery(relation.getR2EntityClass());
+                Root r2Root = criteriaQuery.from(relation.getR2EntityClass());
+                criteriaQuery.select(r2Root).where(r2Root.get("id").in(chunk));
+                List<Persistable<?>> r2Entities = getEntityManager().createQuery(criteriaQuery).getResultList();
+                for (Persistable<?> r2Entity : r2Entities) {
+                    r2EntityMap.put(r2Entity.getId(), r2Entity);
+                }
+            }
+            // 按传入主键顺序追加关联，不存在的被关联对象忽略
+            for (Serializable r2EntityId : toAddIds) {
+                Object r2Entity = r2EntityMap.get(r2EntityId);
+                if (r2Entity != null) {
+                    oldR2s.add(relation.newR2(entity, r2Entity));
                 }
             }
-        } catch (Exception e) {
-            throw new ServiceException(e.getMessage(), e);
         }
     }
 
@@ -0,0 +1,122 @@
+package com.knight.core.service;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 基于Map数据的接口投影动态代理，接口getter方法直接从Map按属性名取值
+ * 如getCode()、isEnabled()分别对应code、enabled属性；接口default方法通过MethodHandle调用接口自身实现
+ * <p>
+ * Date: 2026/10/18
+ * Time: 23:48
+ *
+ * @author Rascal
+ */
+class ProjectionProxy implements InvocationHandler {
+
+    /*投影接口对应属性名称缓存*/
+    private static final ConcurrentMap<Class<?>, String[]> projectionProperties = new ConcurrentHashMap<>();
+
+    /*接口default方法句柄缓存*/
+    private static final ConcurrentMap<Method, MethodHandle> defaultMethods = new ConcurrentHashMap<>();
+
+    private final Map<String, Object> values;
+
+    private ProjectionProxy(Map<String, Object> values) {
+        this.values = values;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <P> P create(Class<P> projectionType, Map<String, Object> values) {
+        return (P) Proxy.newProxyInstance(projectionType.getClassLoader(), new Class<?>[]{projectionType}, new ProjectionProxy(values));
+    }
+
+    /**
+     * 获取投影接口getter方法对应的属性名称集合
+     */
+    static String[] getProperties(Class<?> projectionType) {
+        String[] properties = projectionProperties.get(projectionType);
+        if (properties == null) {
+            if (!projectionType.isInterface()) {
+                throw new IllegalArgumentException("投影类型必须为接口: " + projectionType);
+            }
+            Set<String> names = new LinkedHashSet<>();
+            for (Method method : projectionType.getMethods()) {
+                String property = toPropertyName(method);
+                if (property != null) {
+                    names.add(property);
+                }
+            }
+            properties = names.toArray(new String[names.size()]);
+            projectionProperties.putIfAbsent(projectionType, properties);
+        }
+        return properties;
+    }
+
+    private static String toPropertyName(Method method) {
+        if (method.getParameterTypes().length > 0 || method.isDefault()) {
+            return null;
+        }
+        String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3) {
+            return StringUtils.uncapitalize(name.substring(3));
+        } else if (name.startsWith("is") && name.length() > 2) {
+            return StringUtils.uncapitalize(name.substring(2));
+        }
+        return null;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("toString".equals(name) && method.getParameterTypes().length == 0) {
+            return values.toString();
+        } else if ("hashCode".equals(name) && method.getParameterTypes().length == 0) {
+            return values.hashCode();
+        } else if ("equals".equals(name) && method.getParameterTypes().length == 1) {
+            return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                    && Proxy.getInvocationHandler(args[0]) instanceof ProjectionProxy
+                    && values.equals(((ProjectionProxy) Proxy.getInvocationHandler(args[0])).values);
+        }
+        if (method.isDefault()) {
+            return getDefaultMethod(method).bindTo(proxy).invokeWithArguments(args == null ? new Object[0] : args);
+        }
+        String property = toPropertyName(method);
+        if (property == null) {
+            throw new UnsupportedOperationException("投影接口不支持方法: " + method);
+        }
+        return values.get(property);
+    }
+
+    private static MethodHandle getDefaultMethod(Method method) throws ReflectiveOperationException {
+        MethodHandle handle = defaultMethods.get(method);
+        if (handle == null) {
+            Class<?> declaringClass = method.getDeclaringClass();
+            MethodHandles.Lookup lookup;
+            try {
+                // Java 9及以上版本
+                Method privateLookupIn = MethodHandles.class.getMethod("privateLookupIn", Class.class, MethodHandles.Lookup.class);
+                lookup = (MethodHandles.Lookup) privateLookupIn.invoke(null, declaringClass, MethodHandles.lookup());
+            } catch (NoSuchMethodException e) {
+                // Java 8需要以接口自身作为lookup类才能调用unreflectSpecial
+                Constructor<MethodHandles.Lookup> constructor = MethodHandles.Lookup.class.getDeclaredConstructor(Class.class, int.class);
+                constructor.setAccessible(true);
+                lookup = constructor.newInstance(declaringClass, MethodHandles.Lookup.PRIVATE);
+            }
+            handle = lookup.unreflectSpecial(method, declaringClass);
+            defaultMethods.putIfAbsent(method, handle);
+        }
+        return handle;
+    }
+}
@@ -0,0 +1,28 @@
+package com.knight.core.service;
+
+import com.knight.core.pagination.PropertyPathRegistry;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+
+/**
+ * 应用启动时基于JPA Metamodel预热PropertyFilter属性路径元数据
+ * <p>
+ * Date: 2026/10/18
+ * Time: 22:58
+ *
+ * @author Rascal
+ */
+@Component
+public class PropertyPathRegistryInitializer {
+
+    @PersistenceUnit(unitName = "entityManagerApp")
+    private EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void init() {
+        PropertyPathRegistry.warmUp(entityManagerFactory.getMetamodel());
+    }
+}
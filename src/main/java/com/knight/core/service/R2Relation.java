@@ -0,0 +1,129 @@
+package com.knight.core.service;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.springframework.data.domain.Persistable;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * R2关联关系元数据，如User.userR2Roles对应的UserR2Role关联类、UserR2Role.user主对象属性、UserR2Role.role被关联对象属性
+ * 按主对象类型+关联集合属性+被关联对象属性解析一次后缓存，避免每次关联更新重复反射查找字段
+ * 解析时校验关联定义，属性缺失或类型不符时抛出IllegalArgumentException说明具体原因
+ * <p>
+ * Date: 2026/10/18
+ * Time: 23:10
+ *
+ * @author Rascal
+ */
+class R2Relation {
+
+    private static final ConcurrentMap<String, R2Relation> relations = new ConcurrentHashMap<>();
+
+    /*主对象中关联集合属性，如User.userR2Roles*/
+    private final Field r2Field;
+
+    /*主对象中关联集合属性getter方法，主对象为Hibernate代理时也可正确读取*/
+    private final Method r2Getter;
+
+    /*R2关联对象类型，如UserR2Role*/
+    private final Class<?> r2Class;
+
+    /*R2关联对象中指向主对象的属性，如UserR2Role.user*/
+    private final Field entityField;
+
+    /*R2关联对象中指向被关联对象的属性，如UserR2Role.role*/
+    private final Field r2EntityField;
+
+    private R2Relation(Class<?> entityClass, String r2PropertyName, String r2EntityPropertyName) {
+        this.r2Field = FieldUtils.getField(entityClass, r2PropertyName, true);
+        if (r2Field == null) {
+            throw new IllegalArgumentException("R2关联集合属性未定义: " + entityClass.getName() + "." + r2PropertyName);
+        }
+        if (!List.class.isAssignableFrom(r2Field.getType()) || !(r2Field.getGenericType() instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("R2关联集合属性必须为声明元素类型的List: " + entityClass.getName() + "." + r2PropertyName);
+        }
+        this.r2Getter = MethodUtils.getAccessibleMethod(entityClass, "get" + StringUtils.capitalize(r2PropertyName));
+        this.r2Class = (Class<?>) (((ParameterizedType) r2Field.getGenericType()).getActualTypeArguments()[0]);
+        Field ownerField = null;
+        for (Class<?> cls = r2Class; cls != null && ownerField == null; cls = cls.getSuperclass()) {
+            for (Field field : cls.getDeclaredFields()) {
+                if (field.getType().equals(entityClass)) {
+                    ownerField = field;
+                    break;
+                }
+            }
+        }
+        if (ownerField == null) {
+            throw new IllegalArgumentException("R2关联对象 " + r2Class.getName() + " 中未定义指向主对象 " + entityClass.getName() + " 的属性");
+        }
+        this.entityField = ownerField;
+        this.entityField.setAccessible(true);
+        this.r2EntityField = FieldUtils.getField(r2Class, r2EntityPropertyName, true);
+        if (r2EntityField == null) {
+            throw new IllegalArgumentException("R2关联对象被关联属性未定义: " + r2Class.getName() + "." + r2EntityPropertyName);
+        }
+        if (!Persistable.class.isAssignableFrom(r2EntityField.getType())) {
+            throw new IllegalArgumentException("R2关联对象被关联属性必须为实体对象: " + r2Class.getName() + "." + r2EntityPropertyName);
+        }
+    }
+
+    static R2Relation of(Class<?> entityClass, String r2PropertyName, String r2EntityPropertyName) {
+        String key = entityClass.getName() + "." + r2PropertyName + "." + r2EntityPropertyName;
+        R2Relation relation = relations.get(key);
+        if (relation == null) {
+            relation = new R2Relation(entityClass, r2PropertyName, r2EntityPropertyName);
+            R2Relation existing = relations.putIfAbsent(key, relation);
+            if (existing != null) {
+                relation = existing;
+            }
+        }
+        return relation;
+    }
+
+    /**
+     * 读取主对象中的R2关联集合，如果为null则初始化一个空集合设置到主对象
+     */
+    List readR2s(Object entity) throws IllegalAccessException, InvocationTargetException {
+        List r2s = (List) (r2Getter != null ? r2Getter.invoke(entity) : r2Field.get(entity));
+        if (r2s == null) {
+            r2s = Lists.newArrayList();
+            r2Field.set(entity, r2s);
+        }
+        return r2s;
+    }
+
+    /**
+     * 被关联对象类型，如Role
+     */
+    Class<?> getR2EntityClass() {
+        return r2EntityField.getType();
+    }
+
+    /**
+     * 读取R2关联对象中被关联对象的主键，关联对象为Hibernate代理时不会触发加载
+     */
+    Serializable getR2EntityId(Object r2) throws IllegalAccessException {
+        Persistable<?> r2Entity = (Persistable<?>) r2EntityField.get(r2);
+        return r2Entity == null ? null : r2Entity.getId();
+    }
+
+    /**
+     * 创建新的R2关联对象并设置主对象和被关联对象
+     */
+    Object newR2(Object entity, Object r2Entity) throws IllegalAccessException, InstantiationException {
+        Object r2 = r2Class.newInstance();
+        entityField.set(r2, entity);
+        r2EntityField.set(r2, r2Entity);
+        return r2;
+    }
+}
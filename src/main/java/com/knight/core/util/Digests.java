@@ -96,6 +96,28 @@ public class Digests {
         return digest(input, SHA1);
     }
 
+    /**
+     * 创建sha1消息摘要对象，用于在文件流复制过程中同步计算散列，如配合DigestInputStream使用
+     */
+    public static MessageDigest createSha1Digest() {
+        return createDigest(SHA1);
+    }
+
+    /**
+     * 创建MD5消息摘要对象，用于在数据流复制过程中同步计算散列
+     */
+    public static MessageDigest createMd5Digest() {
+        return createDigest(MD5);
+    }
+
+    private static MessageDigest createDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw Exceptions.unchecked(e);
+        }
+    }
+
     private static byte[] digest(InputStream input, String algorithm) throws IOException {
         try {
             MessageDigest messageDigest = MessageDigest.getInstance(algorithm);
@@ -0,0 +1,34 @@
+package com.knight.core.web.filter;
+
+import com.knight.core.audit.envers.OperationContext;
+
+import javax.servlet.*;
+import java.io.IOException;
+
+/**
+ * 请求结束时清空当前线程的审计操作上下文，避免请求线程被复用时带入上一个请求的属性
+ * <p>
+ * Date: 2026/10/19
+ * Time: 18:30
+ *
+ * @author Rascal
+ */
+public class OperationContextFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain) throws IOException, ServletException {
+        try {
+            filterChain.doFilter(servletRequest, servletResponse);
+        } finally {
+            OperationContext.reset();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
@@ -15,11 +15,15 @@ import com.knight.core.web.filter.WebAppContextInitFilter;
 import com.knight.core.web.json.DateTimeJsonSerializer;
 import com.knight.module.sys.entity.AttachmentFile;
 import com.knight.module.sys.service.AttachmentFileService;
+import com.knight.module.sys.service.AttachmentUploadPipeline;
+import com.knight.support.service.AttachmentStorage;
 import com.knight.support.service.DynamicConfigService;
+import com.knight.support.service.LocalShardedFileStorage;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.util.Assert;
 
@@ -34,7 +38,15 @@ import java.io.*;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.Future;
 
 /**
  * Date: 2015/11/23
@@ -124,6 +136,254 @@ public class ServletUtils {
         }
     }
 
+    /**
+     * 以流式方式直接从附件存储输出附件文件，不再把文件整体读入内存
+     * 基于附件元数据设置ETag/Last-Modified，浏览器重复下载时返回304；支持单区间Range请求实现断点续传
+     */
+    public static void renderFileDownload(HttpServletRequest request, HttpServletResponse response, AttachmentFile attachmentFile) {
+        AttachmentStorage attachmentStorage = getAttachmentStorage();
+        String key = attachmentFile.getStoragePath();
+        Date modified = attachmentFile.getLastModifiedOrCreatedDate();
+        long lastModified = modified != null ? modified.getTime() : 0;
+        String eTag = "\"" + attachmentFile.getId() + "-" + attachmentFile.getFileLength() + "-" + lastModified + "\"";
+        renderDownload(request, response, attachmentFile.getFileRealName(), eTag, lastModified, attachmentStorage.length(key),
+                (offset, count, target) -> attachmentStorage.transferTo(key, offset, count, target));
+    }
+
+    /**
+     * 流式输出文件：按区间分块写入响应输出流，内存占用与文件大小无关
+     * 注意响应输出流经Channels.newChannel包装后不是SocketChannel，FileChannel.transferTo会退化为经用户态缓冲区的复制，
+     * 并非sendfile零拷贝；需要零拷贝时应由Nginx等前端服务器直接输出静态文件
+     *
+     * @param eTag         文件版本标识，需带双引号，如"\"abc\""
+     * @param lastModified 文件最后修改时间毫秒数
+     */
+    public static void renderFileDownload(HttpServletRequest request, HttpServletResponse response, File file,
+                                          String fileName, String eTag, long lastModified) {
+        renderDownload(request, response, fileName, eTag, lastModified, file.isFile() ? file.length() : -1,
+                (offset, count, target) -> {
+                    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                        return LocalShardedFileStorage.transfer(channel, offset, count, target);
+                    }
+                });
+    }
+
+    /**
+     * 流式输出已打开的文件通道，调用方负责关闭通道；输出期间文件被删除（如缓存淘汰）不影响已打开的通道
+     *
+     * @param eTag         文件版本标识，需带双引号，如"\"abc\""
+     * @param lastModified 文件最后修改时间毫秒数
+     */
+    public static void renderFileDownload(HttpServletRequest request, HttpServletResponse response, FileChannel channel,
+                                          String fileName, String eTag, long lastModified) {
+        long length;
+        try {
+            length = channel.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        renderDownload(request, response, fileName, eTag, lastModified, length,
+                (offset, count, target) -> LocalShardedFileStorage.transfer(channel, offset, count, target));
+    }
+
+    /**
+     * 下载内容区间传输回调
+     */
+    private interface DownloadSource {
+
+        long transferTo(long offset, long count, WritableByteChannel target) throws IOException;
+    }
+
+    private static void renderDownload(HttpServletRequest request, HttpServletResponse response, String fileName,
+                                       String eTag, long lastModified, long length, DownloadSource source) {
+        ResponseChannel target = null;
+        try {
+            if (length < 0) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            //HTTP日期精度为秒
+            lastModified = lastModified / 1000 * 1000;
+            response.setHeader("ETag", eTag);
+            if (lastModified > 0) {
+                response.setDateHeader("Last-Modified", lastModified);
+            }
+            response.setHeader("Accept-Ranges", "bytes");
+            if (isNotModified(request, eTag, lastModified)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            String range = request.getHeader("Range");
+            if (range != null && isRangeApplicable(request, eTag, lastModified)) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                if (bounds.length == 2) {
+                    start = bounds[0];
+                    end = bounds[1];
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
+            String contentType = request.getServletContext().getMimeType(fileName);
+            response.setContentType(contentType != null ? contentType : "application/octet-stream");
+            setFileDownloadHeader(response, fileName);
+            long count = end - start + 1;
+            response.setContentLengthLong(count);
+            if ("HEAD".equalsIgnoreCase(request.getMethod()) || count <= 0) {
+                return;
+            }
+
+            target = new ResponseChannel(response.getOutputStream());
+            source.transferTo(start, count, target);
+            response.flushBuffer();
+        } catch (IOException e) {
+            if (target != null && target.isWriteFailed()) {
+                //写响应失败为客户端中断下载（如断点续传客户端主动断开），属于正常情况，不作为错误处理
+                logger.debug("Render file download {} aborted: {}", fileName, e.getMessage());
+                return;
+            }
+            //读取附件存储失败等服务端错误
+            logger.error("Render file download {} failure", fileName, e);
+            if (!response.isCommitted()) {
+                try {
+                    response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } catch (IOException ex) {
+                    logger.debug("Send download error response failure: {}", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 响应输出流通道包装，记录写入是否失败，用于区分客户端中断与读取存储失败
+     */
+    private static class ResponseChannel implements WritableByteChannel {
+
+        private final WritableByteChannel delegate;
+
+        private boolean writeFailed;
+
+        private ResponseChannel(OutputStream output) {
+            this.delegate = Channels.newChannel(output);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            try {
+                return delegate.write(src);
+            } catch (IOException e) {
+                writeFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return delegate.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        boolean isWriteFailed() {
+            return writeFailed;
+        }
+    }
+
+    /**
+     * 判断缓存校验请求头：If-None-Match优先，其次If-Modified-Since
+     */
+    private static boolean isNotModified(HttpServletRequest request, String eTag, long lastModified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            return "*".equals(ifNoneMatch.trim()) || matchesETag(ifNoneMatch, eTag);
+        }
+        long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * 带If-Range请求头时，只有文件版本未变化才按区间输出，否则输出完整文件
+     */
+    private static boolean isRangeApplicable(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(eTag);
+        }
+        long ifRangeTime = getDateHeader(request, "If-Range");
+        return ifRangeTime >= 0 && lastModified <= ifRangeTime;
+    }
+
+    private static boolean matchesETag(String headerValue, String eTag) {
+        for (String candidate : StringUtils.split(headerValue, ",")) {
+            candidate = StringUtils.removeStart(candidate.trim(), "W/");
+            if (candidate.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析Range请求头，支持bytes=start-end、bytes=start-、bytes=-suffixLength单区间写法
+     *
+     * @return 区间起止位置；多区间或无法识别的写法返回空数组表示忽略Range输出完整文件；区间无法满足返回null
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int index = spec.indexOf('-');
+        if (index < 0) {
+            return new long[0];
+        }
+        try {
+            long start;
+            long end;
+            String startValue = spec.substring(0, index).trim();
+            String endValue = spec.substring(index + 1).trim();
+            if (startValue.isEmpty()) {
+                long suffixLength = Long.parseLong(endValue);
+                if (suffixLength <= 0) {
+                    return null;
+                }
+                start = Math.max(length - suffixLength, 0);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(startValue);
+                end = endValue.isEmpty() ? length - 1 : Math.min(Long.parseLong(endValue), length - 1);
+            }
+            if (start < 0 || start >= length || end < start) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
     /**
      * 基于JSR注解以AJAX方式请求实体对象对应的校验规则JSON，前端需要传入一个实体对象的标识
      * 为了避免在响应用户的HTML内容中直接透露实体全名等敏感信息，做一个转义处理.
@@ -360,33 +620,127 @@ public class ServletUtils {
      * @return 返回图片显示的完整URL
      */
     public static String writeUploadFile(InputStream fis, String name, long length) {
-        if (staticFileUploadDir == null) {
-            DynamicConfigService dynamicConfigService = SpringContextHolder.getBean(DynamicConfigService.class);
-            staticFileUploadDir = dynamicConfigService.getString("write_upload_file_dir");
-            if (StringUtils.isBlank(staticFileUploadDir)) {
-                staticFileUploadDir = WebAppContextInitFilter.getInitedWebContextRealPath();
-            }
-            if (staticFileUploadDir.endsWith(File.separator)) {
-                staticFileUploadDir = staticFileUploadDir.substring(0, staticFileUploadDir.length() - 1);
-            }
-            logger.info("Setup file upload root dir:  {}", staticFileUploadDir);
+        if (isContentAddressedUpload()) {
+            return writeContentAddressedUploadFile(fis, name);
         }
-
+        File tempFile = createUploadTempFile();
         try {
 
             AttachmentFile attachmentFile = AttachmentFile.buildInstance(name, length);
-            String path = "/upload" + attachmentFile.getFileRelativePath() + "/" + attachmentFile.getDiskFileName();
-            String fullPath = staticFileUploadDir + path;
-            logger.debug("Saving upload file: {}", fullPath);
-            FileUtils.copyInputStreamToFile(fis, new File(fullPath));
+            String path = attachmentFile.getStoragePath();
+            logger.debug("Saving upload file: {}", path);
+            FileUtils.copyInputStreamToFile(fis, tempFile);
+            AttachmentStorage attachmentStorage = getAttachmentStorage();
+            attachmentStorage.put(path, tempFile);
 
             AttachmentFileService attachmentFileServiceService = SpringContextHolder.getBean(AttachmentFileService.class);
-            attachmentFileServiceService.save(attachmentFile);
+            try {
+                attachmentFileServiceService.save(attachmentFile);
+            } catch (RuntimeException e) {
+                //附件记录保存失败则删除已移入存储的文件，避免遗留没有记录的文件
+                try {
+                    attachmentStorage.delete(path);
+                } catch (IOException ex) {
+                    logger.warn("Delete stored upload file {} failure", path, ex);
+                }
+                throw e;
+            }
 
             return path;
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * 异步写入上传文件：请求线程只把上传流缓冲到临时文件，刷盘、摘要、移动和保存附件记录由上传流水线异步完成
+     * 流水线队列已满时立即抛出异常拒绝上传，不会占用请求线程排队等待
+     *
+     * @return 附件对象Future，完成后可取得附件存储路径
+     */
+    public static Future<AttachmentFile> writeUploadFileAsync(InputStream fis, String name) {
+        return SpringContextHolder.getBean(AttachmentUploadPipeline.class).submit(fis, name);
+    }
+
+    /**
+     * 是否启用内容寻址附件存储
+     */
+    public static boolean isContentAddressedUpload() {
+        DynamicConfigService dynamicConfigService = SpringContextHolder.getBean(DynamicConfigService.class);
+        return dynamicConfigService.getBoolean("upload_content_addressed", false);
+    }
+
+    /**
+     * 在上传根目录下创建一个上传临时文件对象，与正式存储目录同一文件系统以便直接移动
+     */
+    public static File createUploadTempFile() {
+        return new File(getStaticFileUploadDir() + "/upload/tmp/" + UUID.randomUUID());
+    }
+
+    /**
+     * 内容寻址模式写入上传文件：复制到临时文件的同时计算SHA-1摘要，以摘要作为存储key，
+     * 相同内容已存在时只增加存储块引用计数，不再重复占用磁盘
+     *
+     * @return 存储块文件相对路径
+     */
+    private static String writeContentAddressedUploadFile(InputStream fis, String name) {
+        File tempFile = createUploadTempFile();
+        try {
+            MessageDigest messageDigest = Digests.createSha1Digest();
+            FileUtils.copyInputStreamToFile(new DigestInputStream(fis, messageDigest), tempFile);
+            String digest = Encodes.encodeHex(messageDigest.digest());
+            return saveContentAddressedUploadFile(tempFile, name, digest).getStoragePath();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    /**
+     * 以内容摘要作为存储key保存已写入完成的上传临时文件，相同内容已存在则只增加存储块引用计数
+     */
+    public static AttachmentFile saveContentAddressedUploadFile(File tempFile, String name, String digest) {
+        AttachmentFile attachmentFile = AttachmentFile.buildInstance(name, tempFile.length());
+        attachmentFile.setBlobDigest(digest);
+        logger.debug("Saving content addressed upload file: {} -> {}", name, digest);
+        AttachmentFileService attachmentFileService = SpringContextHolder.getBean(AttachmentFileService.class);
+        try {
+            return attachmentFileService.saveWithBlob(attachmentFile, tempFile);
+        } catch (DataIntegrityViolationException e) {
+            //其它请求并发创建了相同内容的存储块，重试即转为增加引用计数
+            logger.debug("Concurrent blob creation for {}, retry as reference", digest);
+            attachmentFile = AttachmentFile.buildInstance(name, attachmentFile.getFileLength());
+            attachmentFile.setBlobDigest(digest);
+            return attachmentFileService.saveWithBlob(attachmentFile, tempFile);
+        }
+    }
+
+    /**
+     * 附件文件存储
+     */
+    public static AttachmentStorage getAttachmentStorage() {
+        return SpringContextHolder.getBean(AttachmentStorage.class);
+    }
+
+    /**
+     * 文件上传根目录：优先取write_upload_file_dir参数值，如果没有定义则取webapp根目录
+     */
+    public static String getStaticFileUploadDir() {
+        if (staticFileUploadDir == null) {
+            DynamicConfigService dynamicConfigService = SpringContextHolder.getBean(DynamicConfigService.class);
+            staticFileUploadDir = dynamicConfigService.getString("write_upload_file_dir");
+            if (StringUtils.isBlank(staticFileUploadDir)) {
+                staticFileUploadDir = WebAppContextInitFilter.getInitedWebContextRealPath();
+            }
+            if (staticFileUploadDir.endsWith(File.separator)) {
+                staticFileUploadDir = staticFileUploadDir.substring(0, staticFileUploadDir.length() - 1);
+            }
+            logger.info("Setup file upload root dir:  {}", staticFileUploadDir);
         }
+        return staticFileUploadDir;
     }
 
 
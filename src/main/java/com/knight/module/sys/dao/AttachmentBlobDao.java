@@ -0,0 +1,46 @@
+package com.knight.module.sys.dao;
+
+import com.knight.core.dao.jpa.BaseDao;
+import com.knight.module.sys.entity.AttachmentBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+import java.util.List;
+
+/**
+ * Date: 2026/10/19
+ * Time: 09:25
+ *
+ * @author Rascal
+ */
+@Repository
+public interface AttachmentBlobDao extends BaseDao<AttachmentBlob, Long> {
+
+    AttachmentBlob findByDigestAndFileExtension(String digest, String fileExtension);
+
+    @Modifying
+    @Query("update AttachmentBlob b set b.refCount = b.refCount + 1 where b.digest = ?1 and b.fileExtension = ?2")
+    int increaseRefCount(String digest, String fileExtension);
+
+    @Modifying
+    @Query("update AttachmentBlob b set b.refCount = b.refCount - 1, b.releasedTime = ?3 where b.digest = ?1 and b.fileExtension = ?2 and b.refCount > 0")
+    int decreaseRefCount(String digest, String fileExtension, Long releasedTime);
+
+    /**
+     * 刷新无引用存储块的释放时间，推迟回收
+     */
+    @Modifying
+    @Query("update AttachmentBlob b set b.releasedTime = ?3 where b.digest = ?1 and b.fileExtension = ?2 and b.refCount <= 0")
+    int delayCollect(String digest, String fileExtension, Long releasedTime);
+
+    /**
+     * 查询并锁定引用计数归零且释放时间早于指定时间戳的存储块
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("from AttachmentBlob b where b.refCount <= 0 and b.releasedTime < ?1 order by b.id")
+    List<AttachmentBlob> findOrphans(Long releasedBefore, Pageable pageable);
+}
@@ -0,0 +1,23 @@
+package com.knight.module.sys.dao;
+
+import com.knight.core.dao.jpa.BaseDao;
+import com.knight.module.sys.entity.ConfigVersion;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Date: 2026/10/19
+ * Time: 00:32
+ *
+ * @author Rascal
+ */
+@Repository
+public interface ConfigVersionDao extends BaseDao<ConfigVersion, Long> {
+
+    ConfigVersion findByChannel(String channel);
+
+    @Modifying
+    @Query("update ConfigVersion c set c.versionNo = c.versionNo + 1, c.propKey = ?2, c.changedNode = ?3, c.changedTime = ?4 where c.channel = ?1")
+    int increaseVersion(String channel, String propKey, String changedNode, Long changedTime);
+}
@@ -0,0 +1,37 @@
+package com.knight.module.sys.dao;
+
+import com.knight.core.dao.jpa.BaseDao;
+import com.knight.module.sys.entity.RevisionArchive;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Date: 2026/10/19
+ * Time: 17:25
+ *
+ * @author Rascal
+ */
+@Repository
+public interface RevisionArchiveDao extends BaseDao<RevisionArchive, Long> {
+
+    /**
+     * 查询审计记录尚未从审计表删除完成的归档文件
+     */
+    @Query("from RevisionArchive a where a.entityName = ?1 and a.purged = false order by a.fromRev")
+    List<RevisionArchive> findUnpurged(String entityName);
+
+    /**
+     * 查询版本时间范围与指定区间有交集的归档文件
+     */
+    @Query("from RevisionArchive a where a.entityName = ?1 and (a.toTime is null or a.toTime >= ?2) and (a.fromTime is null or a.fromTime < ?3) order by a.fromRev")
+    List<RevisionArchive> findByEntityNameAndTimeRange(String entityName, Long startTime, Long endTime);
+
+    /**
+     * 查询版本时间范围与指定区间有交集且实体主键范围可能包含指定主键的归档文件，未记录主键范围的文件都需要读取
+     */
+    @Query("from RevisionArchive a where a.entityName = ?1 and (a.minEntityId is null or (a.minEntityId <= ?2 and a.maxEntityId >= ?2))"
+            + " and (a.toTime is null or a.toTime >= ?3) and (a.fromTime is null or a.fromTime < ?4) order by a.fromRev")
+    List<RevisionArchive> findByEntityNameAndIdAndTimeRange(String entityName, Long entityId, Long startTime, Long endTime);
+}
@@ -0,0 +1,55 @@
+package com.knight.module.sys.entity;
+
+import com.knight.core.annotation.MetaData;
+import com.knight.core.entity.BaseNativeEntity;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import javax.persistence.*;
+
+/**
+ * 内容寻址附件存储块，以文件内容SHA-1摘要加扩展名作为存储key，相同内容且相同扩展名的上传文件共享同一个磁盘文件
+ * 引用计数记录引用此存储块的附件数量，计数归零超过保留期后由AttachmentBlobCollector回收
+ * <p>
+ * Date: 2026/10/19
+ * Time: 09:20
+ *
+ * @author Rascal
+ */
+@Getter
+@Setter
+@Accessors(chain = true)
+@Access(AccessType.FIELD)
+@Entity
+@Table(name = "sys_attachmentblob", uniqueConstraints = @UniqueConstraint(columnNames = {"digest", "fileExtension"}))
+@MetaData(value = "附件存储块")
+public class AttachmentBlob extends BaseNativeEntity {
+
+    private static final long serialVersionUID = -2470355306123881473L;
+
+    @MetaData(value = "内容摘要", comments = "文件内容SHA-1摘要十六进制字符串")
+    @Column(length = 40, nullable = false)
+    private String digest;
+
+    @MetaData(value = "扩展名", comments = "规范化的小写扩展名，存储块文件名后缀")
+    @Column(length = 10, nullable = false)
+    private String fileExtension;
+
+    @MetaData(value = "文件大小")
+    @Column(nullable = false)
+    private Long fileLength;
+
+    @MetaData(value = "引用计数")
+    @Column(nullable = false)
+    private Integer refCount;
+
+    @MetaData(value = "最近释放引用时间戳", comments = "毫秒数，引用计数归零后据此判断是否超过回收保留期")
+    private Long releasedTime;
+
+    @Override
+    @Transient
+    public String getDisplay() {
+        return digest + "." + fileExtension + ":" + refCount;
+    }
+}
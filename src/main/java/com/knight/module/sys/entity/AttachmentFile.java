@@ -13,6 +13,7 @@ import org.joda.time.DateTime;
 import org.springframework.util.Assert;
 
 import javax.persistence.*;
+import java.util.Date;
 import java.util.UUID;
 
 /**
@@ -42,6 +43,9 @@ public class AttachmentFile extends BaseEntity<String> {
 
     private String fileRelativePath;
 
+    /** 内容寻址存储模式下文件内容摘要，为空表示按fileRelativePath独立存储 */
+    private String blobDigest;
+
     private String id;
 
     /** 直接以文件byte数据计算的MD5码或UUID作为唯一标识 */
@@ -148,9 +152,60 @@ public class AttachmentFile extends BaseEntity<String> {
         this.fileRelativePath = fileRelativePath;
     }
 
+    @Column(length = 40)
+    @JsonIgnore
+    public String getBlobDigest() {
+        return blobDigest;
+    }
+
+    public void setBlobDigest(String blobDigest) {
+        this.blobDigest = blobDigest;
+    }
+
     @Transient
     @JsonIgnore
     public String getDiskFileName() {
         return getId() + "." + getFileExtension();
     }
+
+    /**
+     * 文件相对上传根目录的存储路径，如/upload/2015/11/29/ab/xxx.jpg；内容寻址存储则为存储块路径
+     */
+    @Transient
+    @JsonIgnore
+    public String getStoragePath() {
+        if (blobDigest != null) {
+            return buildBlobStoragePath(blobDigest, getFileExtension());
+        }
+        return "/upload" + getFileRelativePath() + "/" + getDiskFileName();
+    }
+
+    /**
+     * 内容寻址存储块路径，按摘要前两级各两个字符分目录，如/upload/blob/ab/cd/abcd....jpg
+     * 存储块文件保留扩展名，Nginx等前端服务器直接输出静态文件时可据此确定Content-Type
+     *
+     * @param fileExtension 附件扩展名，按normalizeBlobExtension规范化
+     */
+    public static String buildBlobStoragePath(String digest, String fileExtension) {
+        return "/upload/blob/" + digest.substring(0, 2) + "/" + digest.substring(2, 4) + "/" + digest + "." + normalizeBlobExtension(fileExtension);
+    }
+
+    /**
+     * 规范化存储块扩展名：转为小写，空白或含字母数字以外字符（避免路径注入）的扩展名统一为bin
+     */
+    public static String normalizeBlobExtension(String fileExtension) {
+        if (StringUtils.isBlank(fileExtension) || fileExtension.length() > 10 || !StringUtils.isAlphanumeric(fileExtension)) {
+            return "bin";
+        }
+        return fileExtension.toLowerCase();
+    }
+
+    /**
+     * 文件最后修改时间，用于HTTP下载Last-Modified缓存校验，未修改过则取创建时间
+     */
+    @Transient
+    @JsonIgnore
+    public Date getLastModifiedOrCreatedDate() {
+        return getLastModifiedDate() != null ? getLastModifiedDate() : getCreatedDate();
+    }
 }
@@ -0,0 +1,54 @@
+package com.knight.module.sys.entity;
+
+import com.knight.core.annotation.MetaData;
+import com.knight.core.entity.BaseNativeEntity;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import javax.persistence.*;
+
+/**
+ * 集群配置变更版本记录，每个变更通道一行，配置数据变更时递增版本号，各节点定期轮询版本号感知其它节点的配置变更
+ * <p>
+ * Date: 2026/10/19
+ * Time: 00:30
+ *
+ * @author Rascal
+ */
+@Getter
+@Setter
+@Accessors(chain = true)
+@Access(AccessType.FIELD)
+@Entity
+@Table(name = "sys_configversion")
+@MetaData(value = "配置变更版本")
+public class ConfigVersion extends BaseNativeEntity {
+
+    private static final long serialVersionUID = 3176420154837165520L;
+
+    @MetaData(value = "变更通道")
+    @Column(length = 64, unique = true, nullable = false)
+    private String channel;
+
+    @MetaData(value = "版本号")
+    @Column(nullable = false)
+    private Long versionNo;
+
+    @MetaData(value = "最近变更属性代码", comments = "为空表示批量变更")
+    @Column(length = 64)
+    private String propKey;
+
+    @MetaData(value = "最近变更节点标识")
+    @Column(length = 64)
+    private String changedNode;
+
+    @MetaData(value = "最近变更时间戳", comments = "毫秒数，用于计算变更传播延迟")
+    private Long changedTime;
+
+    @Override
+    @Transient
+    public String getDisplay() {
+        return channel + ":" + versionNo;
+    }
+}
@@ -0,0 +1,77 @@
+package com.knight.module.sys.entity;
+
+import com.knight.core.annotation.MetaData;
+import com.knight.core.entity.BaseNativeEntity;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import javax.persistence.*;
+
+/**
+ * 审计历史归档文件索引，记录每个归档文件包含的审计实体、版本号范围、版本时间范围及数值主键范围，
+ * 查询归档历史时据此只打开可能包含目标版本或目标实体的归档文件；
+ * 文件中的记录从审计表删除完成后标记purged，未完成的由下次归档任务按文件内容补删
+ * <p>
+ * Date: 2026/10/19
+ * Time: 17:20
+ *
+ * @author Rascal
+ */
+@Getter
+@Setter
+@Accessors(chain = true)
+@Access(AccessType.FIELD)
+@Entity
+@Table(name = "sys_revisionarchive", indexes = @Index(name = "idx_revisionarchive_entity", columnList = "entityName,toRev"))
+@MetaData(value = "审计历史归档")
+public class RevisionArchive extends BaseNativeEntity {
+
+    private static final long serialVersionUID = 6235184467201930416L;
+
+    @MetaData(value = "实体名称", comments = "被审计实体的Hibernate实体名称")
+    @Column(length = 256, nullable = false)
+    private String entityName;
+
+    @MetaData(value = "归档文件", comments = "相对归档根目录的文件路径")
+    @Column(length = 512, nullable = false)
+    private String archiveFile;
+
+    @MetaData(value = "起始版本号")
+    @Column(nullable = false)
+    private Long fromRev;
+
+    @MetaData(value = "截止版本号")
+    @Column(nullable = false)
+    private Long toRev;
+
+    @MetaData(value = "起始版本时间戳", comments = "毫秒数")
+    private Long fromTime;
+
+    @MetaData(value = "截止版本时间戳", comments = "毫秒数")
+    private Long toTime;
+
+    @MetaData(value = "最小实体主键", comments = "实体主键为整数时记录，否则为空")
+    private Long minEntityId;
+
+    @MetaData(value = "最大实体主键", comments = "实体主键为整数时记录，否则为空")
+    private Long maxEntityId;
+
+    @MetaData(value = "记录行数")
+    @Column(nullable = false)
+    private Long rowCount;
+
+    @MetaData(value = "文件大小")
+    @Column(nullable = false)
+    private Long fileLength;
+
+    @MetaData(value = "审计记录已删除", comments = "归档文件中的审计记录已从审计表删除")
+    @Column(nullable = false)
+    private Boolean purged = Boolean.FALSE;
+
+    @Override
+    @Transient
+    public String getDisplay() {
+        return entityName + ":" + fromRev + "-" + toRev;
+    }
+}
@@ -0,0 +1,74 @@
+package com.knight.module.sys.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回收无引用的内容寻址附件存储块，在service/spring-schedule.xml中定义并按attachment_blob_gc_cron调度，
+ * 每批在独立事务中处理，直到没有可回收的存储块
+ * <p>
+ * Date: 2026/10/19
+ * Time: 09:40
+ *
+ * @author Rascal
+ */
+public class AttachmentBlobCollector {
+
+    private final static Logger logger = LoggerFactory.getLogger(AttachmentBlobCollector.class);
+
+    private static final int BATCH_SIZE = 200;
+
+    private AttachmentBlobService attachmentBlobService;
+
+    private boolean enabled = true;
+
+    /*无引用存储块的保留分钟数，避免回收刚写入尚未提交引用的存储块*/
+    private long graceMinutes = 1440;
+
+    public void setAttachmentBlobService(AttachmentBlobService attachmentBlobService) {
+        this.attachmentBlobService = attachmentBlobService;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setGraceMinutes(long graceMinutes) {
+        this.graceMinutes = graceMinutes;
+    }
+
+    /**
+     * 定时回收入口，attachment_blob_gc_enabled为false时不执行
+     */
+    public void scheduledCollect() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            collect();
+        } catch (Exception e) {
+            logger.warn("Collect orphan attachment blobs failure", e);
+        }
+    }
+
+    /**
+     * 回收所有超过保留期的无引用存储块
+     *
+     * @return 回收数量
+     */
+    public int collect() {
+        long graceMillis = TimeUnit.MINUTES.toMillis(graceMinutes);
+        int total = 0;
+        int count;
+        do {
+            count = attachmentBlobService.collectOrphans(graceMillis, BATCH_SIZE);
+            total += count;
+        } while (count >= BATCH_SIZE);
+        if (total > 0) {
+            logger.info("Collected {} orphan attachment blobs", total);
+        }
+        return total;
+    }
+}
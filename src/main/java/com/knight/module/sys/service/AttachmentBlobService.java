@@ -0,0 +1,154 @@
+package com.knight.module.sys.service;
+
+import com.google.common.collect.Lists;
+import com.knight.core.dao.jpa.BaseDao;
+import com.knight.core.service.BaseService;
+import com.knight.module.sys.dao.AttachmentBlobDao;
+import com.knight.module.sys.entity.AttachmentBlob;
+import com.knight.module.sys.entity.AttachmentFile;
+import com.knight.support.service.AttachmentStorage;
+import org.apache.commons.io.FileUtils;
+import org.hibernate.service.spi.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 内容寻址附件存储块管理：按内容摘要登记引用、释放引用以及回收无引用存储块文件
+ * <p>
+ * Date: 2026/10/19
+ * Time: 09:30
+ *
+ * @author Rascal
+ */
+@Service
+@Transactional
+public class AttachmentBlobService extends BaseService<AttachmentBlob, Long> {
+
+    private final static Logger logger = LoggerFactory.getLogger(AttachmentBlobService.class);
+
+    @Autowired
+    private AttachmentBlobDao attachmentBlobDao;
+
+    @Autowired
+    private AttachmentStorage attachmentStorage;
+
+    @Override
+    protected BaseDao<AttachmentBlob, Long> getEntityDao() {
+        return attachmentBlobDao;
+    }
+
+    @Transactional(readOnly = true)
+    public AttachmentBlob findByDigest(String digest, String fileExtension) {
+        return attachmentBlobDao.findByDigestAndFileExtension(digest, AttachmentFile.normalizeBlobExtension(fileExtension));
+    }
+
+    /**
+     * 在独立事务中准备存储块：记录不存在则创建引用计数为0的存储块记录，文件不存在则把临时文件保存为存储块文件，
+     * 调用方随后在自身事务中调用reference登记引用
+     * <p>
+     * 存储块文件在调用方事务提交之前写入，相同摘要的写入是幂等的；调用方事务回滚时存储块记录保持引用计数为0，
+     * 由AttachmentBlobCollector在保留期后连同文件一起回收，不会出现有引用记录却没有文件的情况。
+     * 已存在的无引用存储块刷新释放时间，推迟回收，避免在登记引用之前被回收
+     * 多个节点并发首次上传相同内容时只有一个能创建成功，其余抛出DataIntegrityViolationException，调用方重试即可
+     *
+     * @param digest        文件内容摘要
+     * @param fileExtension 附件扩展名
+     * @param tempFile      已写入完成的上传临时文件，保存为存储块文件或内容已存在时删除
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void prepare(String digest, String fileExtension, File tempFile) {
+        String extension = AttachmentFile.normalizeBlobExtension(fileExtension);
+        String key = AttachmentFile.buildBlobStoragePath(digest, extension);
+        long now = System.currentTimeMillis();
+        attachmentBlobDao.delayCollect(digest, extension, now);
+        if (attachmentBlobDao.findByDigestAndFileExtension(digest, extension) == null) {
+            AttachmentBlob blob = new AttachmentBlob();
+            blob.setDigest(digest).setFileExtension(extension).setFileLength(tempFile.length()).setRefCount(0).setReleasedTime(now);
+            attachmentBlobDao.saveAndFlush(blob);
+        }
+        if (attachmentStorage.exists(key)) {
+            FileUtils.deleteQuietly(tempFile);
+        } else {
+            putBlob(key, tempFile);
+        }
+    }
+
+    /**
+     * 登记一次存储块引用，存储块须已由prepare准备完成
+     */
+    public AttachmentBlob reference(String digest, String fileExtension) {
+        String extension = AttachmentFile.normalizeBlobExtension(fileExtension);
+        if (attachmentBlobDao.increaseRefCount(digest, extension) == 0) {
+            throw new ServiceException("Attachment blob not prepared: " + AttachmentFile.buildBlobStoragePath(digest, extension));
+        }
+        return attachmentBlobDao.findByDigestAndFileExtension(digest, extension);
+    }
+
+    /**
+     * 释放一次存储块引用，引用计数归零的存储块不会立即删除，等待超过保留期后回收
+     */
+    public void release(String digest, String fileExtension) {
+        attachmentBlobDao.decreaseRefCount(digest, AttachmentFile.normalizeBlobExtension(fileExtension), System.currentTimeMillis());
+    }
+
+    /**
+     * 回收引用计数归零且超过保留期的存储块，删除存储块记录并在事务提交后删除存储块文件
+     * 存储块记录在事务内加锁，与并发的prepare互斥，因此不会删除刚被重新引用的存储块；
+     * 删除记录的事务回滚时文件保持不变，提交后删除文件失败只会遗留没有记录的文件，下次上传相同内容时直接复用
+     *
+     * @param graceMillis 引用计数归零后的保留毫秒数
+     * @param limit       单次回收最大数量
+     * @return 回收数量
+     */
+    public int collectOrphans(long graceMillis, int limit) {
+        List<AttachmentBlob> orphans = attachmentBlobDao.findOrphans(System.currentTimeMillis() - graceMillis, new PageRequest(0, limit));
+        final List<String> keys = Lists.newArrayList();
+        for (AttachmentBlob orphan : orphans) {
+            if (orphan.getRefCount() > 0) {
+                continue;
+            }
+            attachmentBlobDao.delete(orphan);
+            keys.add(AttachmentFile.buildBlobStoragePath(orphan.getDigest(), orphan.getFileExtension()));
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deleteBlobs(keys);
+        } else if (!keys.isEmpty()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    deleteBlobs(keys);
+                }
+            });
+        }
+        return keys.size();
+    }
+
+    private void deleteBlobs(List<String> keys) {
+        for (String key : keys) {
+            try {
+                attachmentStorage.delete(key);
+            } catch (IOException e) {
+                logger.warn("Delete blob file failure: {}", key, e);
+            }
+        }
+    }
+
+    private void putBlob(String key, File tempFile) {
+        try {
+            attachmentStorage.put(key, tempFile);
+        } catch (IOException e) {
+            throw new ServiceException("Save upload file to blob failure: " + key, e);
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package com.knight.module.sys.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.knight.core.exception.ValidationException;
+import com.knight.core.util.Digests;
+import com.knight.core.util.Encodes;
+import com.knight.core.web.util.ServletUtils;
+import com.knight.module.sys.entity.AttachmentFile;
+import com.knight.support.service.AttachmentStorage;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.service.spi.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 大附件分片上传：先创建上传会话及与文件等长的临时文件，客户端按序号上传各分片（可并发、可乱序、可重传），
+ * 分片直接写入临时文件对应偏移位置，全部分片到齐后调用complete校验整体摘要并保存为AttachmentFile
+ * 连接中断后客户端通过getSession查询已接收分片，只需补传缺失分片
+ * <p>
+ * 临时文件只设置长度，在支持稀疏文件的文件系统上并不实际占用磁盘，创建会话时按剩余空间、单文件大小上限
+ * upload_chunk_max_file_bytes及会话数上限upload_session_max_count拒绝超出能力的上传
+ * <p>
+ * 分片可携带MD5摘要、整个文件可携带SHA-1摘要用于校验；会话保存在当前节点内存中，超过upload_session_expire_minutes未活动自动清理
+ * Date: 2026/10/19
+ * Time: 13:20
+ *
+ * @author Rascal
+ */
+@Component
+public class AttachmentChunkUploadService {
+
+    private final static Logger logger = LoggerFactory.getLogger(AttachmentChunkUploadService.class);
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private AttachmentFileService attachmentFileService;
+
+    @Autowired
+    private AttachmentStorage attachmentStorage;
+
+    @Value("${upload_chunk_max_bytes:33554432}")
+    private long maxChunkSize;
+
+    @Value("${upload_chunk_max_file_bytes:4294967296}")
+    private long maxFileSize;
+
+    @Value("${upload_session_max_count:100}")
+    private int maxSessionCount;
+
+    @Value("${upload_session_expire_minutes:60}")
+    private long expireMinutes;
+
+    private final ConcurrentMap<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    /*已占用的会话名额，创建会话前原子预占，会话移除时释放*/
+    private final AtomicInteger sessionSlots = new AtomicInteger();
+
+    private ScheduledExecutorService cleanExecutor;
+
+    @PostConstruct
+    public void start() {
+        cleanExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("upload-session-clean-%d").setDaemon(true).build());
+        cleanExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                cleanExpiredSessions();
+            } catch (Exception e) {
+                logger.warn("Clean expired upload sessions failure", e);
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        cleanExecutor.shutdownNow();
+        for (UploadSession session : sessions.values()) {
+            session.close();
+        }
+    }
+
+    /**
+     * 创建上传会话及临时文件
+     *
+     * @param fileName   上传文件名称
+     * @param fileLength 文件总字节数
+     * @param chunkSize  分片字节数，最后一个分片可以小于此值
+     * @param fileDigest 整个文件SHA-1摘要十六进制字符串，可为空；也可在complete时提供
+     */
+    public UploadSession createSession(String fileName, long fileLength, int chunkSize, String fileDigest) {
+        if (StringUtils.isBlank(fileName) || fileLength <= 0) {
+            throw new ValidationException("上传文件名称和大小不能为空");
+        }
+        if (chunkSize <= 0 || chunkSize > maxChunkSize) {
+            throw new ValidationException("分片大小必须在1到" + maxChunkSize + "字节之间");
+        }
+        if (fileLength > maxFileSize) {
+            throw new ValidationException("上传文件大小不能超过" + maxFileSize + "字节");
+        }
+        long chunkCount = (fileLength + chunkSize - 1) / chunkSize;
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new ValidationException("分片数量过多，请增大分片大小");
+        }
+        if (sessionSlots.incrementAndGet() > maxSessionCount) {
+            sessionSlots.decrementAndGet();
+            throw new ValidationException("当前上传任务过多，请稍后再试");
+        }
+        File dataFile = new File(ServletUtils.getStaticFileUploadDir() + "/upload/tmp/chunks/" + UUID.randomUUID() + ".part");
+        try {
+            Files.createDirectories(dataFile.getParentFile().toPath());
+            //临时文件为稀疏文件，写入分片时才占用磁盘，需提前确认剩余空间足够容纳整个文件
+            if (dataFile.getParentFile().getUsableSpace() < fileLength) {
+                throw new ValidationException("服务器存储空间不足，无法上传此文件");
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(dataFile, "rw")) {
+                raf.setLength(fileLength);
+            }
+            FileChannel channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            UploadSession session = new UploadSession(UUID.randomUUID().toString(), fileName, fileLength, chunkSize,
+                    (int) chunkCount, StringUtils.lowerCase(StringUtils.trimToNull(fileDigest)), dataFile, channel);
+            sessions.put(session.id, session);
+            logger.debug("Created upload session {} for {} with {} chunks", session.id, fileName, chunkCount);
+            return session;
+        } catch (IOException e) {
+            sessionSlots.decrementAndGet();
+            FileUtils.deleteQuietly(dataFile);
+            throw new ServiceException("Create upload session failure: " + fileName, e);
+        } catch (RuntimeException e) {
+            sessionSlots.decrementAndGet();
+            FileUtils.deleteQuietly(dataFile);
+            throw e;
+        }
+    }
+
+    /**
+     * 查询上传会话，用于断点续传时获取已接收分片
+     */
+    public UploadSession getSession(String sessionId) {
+        UploadSession session = sessions.get(sessionId);
+        if (session == null) {
+            throw new ValidationException("上传会话不存在或已过期，请重新上传");
+        }
+        session.touch();
+        return session;
+    }
+
+    /**
+     * 写入一个分片，同一分片重复上传则覆盖；写入期间该分片视为未接收，长度和摘要校验通过后才标记为已接收，
+     * 重传失败的分片不会保留之前的接收状态
+     *
+     * @param chunkIndex  分片序号，从0开始
+     * @param input       分片内容流，方法返回前读取完毕
+     * @param chunkDigest 分片MD5摘要十六进制字符串，可为空
+     */
+    public void writeChunk(String sessionId, int chunkIndex, InputStream input, String chunkDigest) {
+        UploadSession session = getSession(sessionId);
+        if (chunkIndex < 0 || chunkIndex >= session.chunkCount) {
+            throw new ValidationException("无效分片序号: " + chunkIndex);
+        }
+        long position = (long) chunkIndex * session.chunkSize;
+        long expectedLength = Math.min(session.chunkSize, session.fileLength - position);
+        session.beginChunk(chunkIndex);
+        boolean verified = false;
+        try {
+            verified = writeChunk(session, chunkIndex, position, expectedLength, input, chunkDigest);
+        } finally {
+            session.endChunk(chunkIndex, verified);
+        }
+    }
+
+    /**
+     * 写入分片内容并校验长度和摘要
+     *
+     * @return 校验通过返回true
+     */
+    private boolean writeChunk(UploadSession session, int chunkIndex, long position, long expectedLength,
+                               InputStream input, String chunkDigest) {
+        MessageDigest messageDigest = Digests.createMd5Digest();
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long written = 0;
+        try {
+            int read;
+            while ((read = input.read(buffer.array(), 0, buffer.capacity())) > -1) {
+                if (written + read > expectedLength) {
+                    throw new ValidationException("分片" + chunkIndex + "大小超过预期" + expectedLength + "字节");
+                }
+                messageDigest.update(buffer.array(), 0, read);
+                buffer.limit(read).position(0);
+                while (buffer.hasRemaining()) {
+                    //基于位置写入，不同分片可并发写入同一文件通道
+                    written += session.channel.write(buffer, position + written);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Write upload chunk failure: " + session.id + "#" + chunkIndex, e);
+        }
+        if (written != expectedLength) {
+            throw new ValidationException("分片" + chunkIndex + "大小" + written + "与预期" + expectedLength + "字节不符");
+        }
+        if (chunkDigest != null && !chunkDigest.equalsIgnoreCase(Encodes.encodeHex(messageDigest.digest()))) {
+            throw new ValidationException("分片" + chunkIndex + "摘要校验失败，请重新上传此分片");
+        }
+        return true;
+    }
+
+    /**
+     * 全部分片到齐且没有正在写入的分片时校验整体摘要并保存附件，完成后会话关闭；
+     * 会话标记为正在完成后不再接受分片写入
+     *
+     * @param fileDigest 整个文件SHA-1摘要十六进制字符串，为空则使用创建会话时提供的摘要，都为空则不校验
+     */
+    public AttachmentFile complete(String sessionId, String fileDigest) {
+        UploadSession session = getSession(sessionId);
+        session.beginComplete();
+        if (!sessions.remove(sessionId, session)) {
+            throw new ValidationException("上传会话已取消或已过期");
+        }
+        sessionSlots.decrementAndGet();
+        try {
+            session.channel.force(true);
+            session.close();
+            String digest;
+            try (InputStream input = new FileInputStream(session.dataFile)) {
+                digest = Encodes.encodeHex(Digests.sha1(input));
+            }
+            String expectedDigest = StringUtils.defaultIfBlank(fileDigest, session.fileDigest);
+            if (expectedDigest != null && !expectedDigest.equalsIgnoreCase(digest)) {
+                throw new ValidationException("文件摘要校验失败，请重新上传");
+            }
+            if (ServletUtils.isContentAddressedUpload()) {
+                return ServletUtils.saveContentAddressedUploadFile(session.dataFile, session.fileName, digest);
+            }
+            AttachmentFile attachmentFile = AttachmentFile.buildInstance(session.fileName, session.fileLength);
+            attachmentStorage.put(attachmentFile.getStoragePath(), session.dataFile);
+            try {
+                return attachmentFileService.save(attachmentFile);
+            } catch (RuntimeException e) {
+                //附件记录保存失败则删除已移入存储的文件，避免遗留没有记录的文件
+                try {
+                    attachmentStorage.delete(attachmentFile.getStoragePath());
+                } catch (IOException ex) {
+                    logger.warn("Delete stored upload file {} failure", attachmentFile.getStoragePath(), ex);
+                }
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new ServiceException("Complete upload session failure: " + sessionId, e);
+        } finally {
+            FileUtils.deleteQuietly(session.dataFile);
+        }
+    }
+
+    /**
+     * 取消上传会话并删除临时文件
+     */
+    public void abort(String sessionId) {
+        UploadSession session = sessions.remove(sessionId);
+        if (session != null) {
+            sessionSlots.decrementAndGet();
+            session.close();
+            FileUtils.deleteQuietly(session.dataFile);
+        }
+    }
+
+    private void cleanExpiredSessions() {
+        long expireBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(expireMinutes);
+        for (UploadSession session : sessions.values()) {
+            if (session.lastAccessTime < expireBefore && sessions.remove(session.id, session)) {
+                sessionSlots.decrementAndGet();
+                session.close();
+                FileUtils.deleteQuietly(session.dataFile);
+                logger.info("Expired upload session {} for {} with {} missing chunks",
+                        session.id, session.fileName, session.getMissingChunkCount());
+            }
+        }
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * 分片上传会话
+     */
+    public static class UploadSession {
+
+        private final String id;
+
+        private final String fileName;
+
+        private final long fileLength;
+
+        private final int chunkSize;
+
+        private final int chunkCount;
+
+        private final String fileDigest;
+
+        private final File dataFile;
+
+        private final FileChannel channel;
+
+        /*已接收分片*/
+        private final BitSet receivedChunks;
+
+        /*正在写入的分片*/
+        private final BitSet writingChunks;
+
+        /*正在完成，不再接受分片写入*/
+        private boolean completing;
+
+        private volatile long lastAccessTime = System.currentTimeMillis();
+
+        private UploadSession(String id, String fileName, long fileLength, int chunkSize, int chunkCount,
+                              String fileDigest, File dataFile, FileChannel channel) {
+            this.id = id;
+            this.fileName = fileName;
+            this.fileLength = fileLength;
+            this.chunkSize = chunkSize;
+            this.chunkCount = chunkCount;
+            this.fileDigest = fileDigest;
+            this.dataFile = dataFile;
+            this.channel = channel;
+            this.receivedChunks = new BitSet(chunkCount);
+            this.writingChunks = new BitSet(chunkCount);
+        }
+
+        private void touch() {
+            lastAccessTime = System.currentTimeMillis();
+        }
+
+        /**
+         * 开始写入分片：清除接收标记，同一分片同时只允许一个写入
+         */
+        private synchronized void beginChunk(int chunkIndex) {
+            if (completing) {
+                throw new ValidationException("上传会话正在完成，不能再上传分片");
+            }
+            if (writingChunks.get(chunkIndex)) {
+                throw new ValidationException("分片" + chunkIndex + "正在上传，请勿重复提交");
+            }
+            writingChunks.set(chunkIndex);
+            receivedChunks.clear(chunkIndex);
+        }
+
+        /**
+         * 结束写入分片，校验通过才标记为已接收
+         */
+        private synchronized void endChunk(int chunkIndex, boolean verified) {
+            writingChunks.clear(chunkIndex);
+            if (verified) {
+                receivedChunks.set(chunkIndex);
+            }
+        }
+
+        /**
+         * 开始完成上传：要求没有正在写入的分片且全部分片已接收，标记后拒绝新的分片写入
+         */
+        private synchronized void beginComplete() {
+            if (completing) {
+                throw new ValidationException("上传会话正在完成或已完成");
+            }
+            if (!writingChunks.isEmpty()) {
+                throw new ValidationException("还有" + writingChunks.cardinality() + "个分片正在上传");
+            }
+            int missing = chunkCount - receivedChunks.cardinality();
+            if (missing > 0) {
+                throw new ValidationException("还有" + missing + "个分片未上传");
+            }
+            completing = true;
+        }
+
+        private void close() {
+            IOUtils.closeQuietly(channel);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getFileLength() {
+            return fileLength;
+        }
+
+        public int getChunkSize() {
+            return chunkSize;
+        }
+
+        public int getChunkCount() {
+            return chunkCount;
+        }
+
+        public synchronized int getMissingChunkCount() {
+            return chunkCount - receivedChunks.cardinality();
+        }
+
+        /**
+         * 已接收分片序号列表
+         */
+        public synchronized List<Integer> getReceivedChunks() {
+            List<Integer> chunks = Lists.newArrayListWithCapacity(receivedChunks.cardinality());
+            for (int i = receivedChunks.nextSetBit(0); i >= 0; i = receivedChunks.nextSetBit(i + 1)) {
+                chunks.add(i);
+            }
+            return chunks;
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.io.File;
+
 /**
  * Date: 2015/11/29
  * Time: 0:05
@@ -21,8 +23,38 @@ public class AttachmentFileService extends BaseService<AttachmentFile, String> {
     @Autowired
     private AttachmentFileDao attachmentFileDao;
 
+    @Autowired
+    private AttachmentBlobService attachmentBlobService;
+
+    @Autowired
+    private AttachmentImageDerivativeService attachmentImageDerivativeService;
+
     @Override
     protected BaseDao<AttachmentFile, String> getEntityDao() {
         return attachmentFileDao;
     }
+
+    /**
+     * 内容寻址存储模式保存附件：先在独立事务中准备存储块（内容已存在则不再重复写入磁盘），再登记存储块引用并保存附件记录
+     *
+     * @param attachmentFile 已设置blobDigest的附件对象
+     * @param tempFile       已写入完成的上传临时文件，方法返回后不应再使用
+     */
+    public AttachmentFile saveWithBlob(AttachmentFile attachmentFile, File tempFile) {
+        attachmentBlobService.prepare(attachmentFile.getBlobDigest(), attachmentFile.getFileExtension(), tempFile);
+        attachmentBlobService.reference(attachmentFile.getBlobDigest(), attachmentFile.getFileExtension());
+        return save(attachmentFile);
+    }
+
+    /**
+     * 删除附件记录及其图片衍生图缓存，内容寻址存储的附件同时释放存储块引用，存储块文件由AttachmentBlobCollector延迟回收
+     */
+    @Override
+    public void delete(AttachmentFile entity) {
+        super.delete(entity);
+        attachmentImageDerivativeService.evict(entity);
+        if (entity.getBlobDigest() != null) {
+            attachmentBlobService.release(entity.getBlobDigest(), entity.getFileExtension());
+        }
+    }
 }
@@ -0,0 +1,450 @@
+package com.knight.module.sys.service;
+
+import com.knight.core.exception.ValidationException;
+import com.knight.core.web.util.ServletUtils;
+import com.knight.module.sys.entity.AttachmentFile;
+import com.knight.support.service.AttachmentStorage;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.service.spi.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 附件图片衍生图（缩略图等）服务：按附件id+变换规格首次访问时生成并缓存到本地磁盘，
+ * 缓存总大小超过image_derivative_cache_bytes时按最近最少访问顺序删除；
+ * 同一衍生图的并发请求只会触发一次生成，其余请求等待并复用生成结果；
+ * 输出时先打开文件再传输，淘汰删除不影响已打开的输出，取得文件后打开前已被删除则重新生成
+ * <p>
+ * 解码前先读取原图头部的宽高，像素数超过image_derivative_max_source_pixels的图片直接拒绝，
+ * 同时生成的衍生图数量由image_derivative_render_concurrency限制，避免大图解码占满堆内存
+ * <p>
+ * 变换规格格式：{宽}x{高}[_crop][.{格式}]，如200x150、200x0、200x200_crop.png；
+ * 宽或高为0表示按原图比例计算，带_crop表示等比缩放填满后居中裁剪，否则等比缩放到限定范围内；格式默认沿用原图格式
+ * Date: 2026/10/19
+ * Time: 14:30
+ *
+ * @author Rascal
+ */
+@Component
+public class AttachmentImageDerivativeService {
+
+    private final static Logger logger = LoggerFactory.getLogger(AttachmentImageDerivativeService.class);
+
+    private static final Pattern SPEC_PATTERN = Pattern.compile("^(\\d{1,4})x(\\d{1,4})(_crop)?(?:\\.(jpg|jpeg|png|gif|bmp))?$");
+
+    private static final int MAX_DIMENSION = 4096;
+
+    @Autowired
+    private AttachmentStorage attachmentStorage;
+
+    @Value("${image_derivative_cache_bytes:536870912}")
+    private long cacheBudgetBytes;
+
+    @Value("${image_derivative_max_source_pixels:50000000}")
+    private long maxSourcePixels;
+
+    @Value("${image_derivative_render_concurrency:2}")
+    private int renderConcurrency;
+
+    @Value("${image_derivative_render_wait_seconds:30}")
+    private long renderWaitSeconds;
+
+    /*限制同时解码生成的衍生图数量*/
+    private Semaphore renderPermits;
+
+    /*缓存文件按访问顺序排列，key为缓存文件路径，value为文件字节数*/
+    private final LinkedHashMap<String, Long> cacheEntries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long cacheBytes;
+
+    /*正在生成的衍生图，保证同一衍生图只生成一次*/
+    private final ConcurrentMap<String, FutureTask<File>> inFlight = new ConcurrentHashMap<>();
+
+    private volatile File cacheDir;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong renderCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        renderPermits = new Semaphore(Math.max(1, renderConcurrency), true);
+    }
+
+    /**
+     * 输出衍生图，基于原附件信息和规格设置ETag/Last-Modified缓存头
+     */
+    public void renderDerivative(HttpServletRequest request, HttpServletResponse response, AttachmentFile attachmentFile, String spec) {
+        File file = getDerivative(attachmentFile, spec);
+        FileChannel channel = openDerivative(file);
+        if (channel == null) {
+            //取得文件后、打开之前被缓存淘汰删除，重新生成一次
+            file = getDerivative(attachmentFile, spec);
+            channel = openDerivative(file);
+            if (channel == null) {
+                throw new ServiceException("Image derivative evicted before serving: " + file);
+            }
+        }
+        try {
+            Date modified = attachmentFile.getLastModifiedOrCreatedDate();
+            long lastModified = modified != null ? modified.getTime() : file.lastModified();
+            String eTag = "\"" + file.getName() + "-" + lastModified + "\"";
+            ServletUtils.renderFileDownload(request, response, channel, file.getName(), eTag, lastModified);
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+    }
+
+    /**
+     * 打开衍生图文件用于输出，打开后缓存淘汰删除文件不影响本次输出
+     *
+     * @return 文件已被删除返回null
+     */
+    private FileChannel openDerivative(File file) {
+        try {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new ServiceException("Open image derivative failure: " + file, e);
+        }
+    }
+
+    /**
+     * 获取衍生图文件，不存在则生成
+     *
+     * @param spec 变换规格，如200x150_crop.png
+     */
+    public File getDerivative(AttachmentFile attachmentFile, String spec) {
+        DerivativeSpec derivativeSpec = DerivativeSpec.parse(spec, attachmentFile.getFileExtension());
+        File file = new File(getCacheDir(), StringUtils.substring(attachmentFile.getId(), -2) + "/"
+                + attachmentFile.getId() + "_" + derivativeSpec.getKey());
+        String path = file.getPath();
+        if (touch(path) && file.isFile()) {
+            hitCount.incrementAndGet();
+            return file;
+        }
+        FutureTask<File> task = new FutureTask<>(() -> render(attachmentFile, derivativeSpec, file));
+        FutureTask<File> existing = inFlight.putIfAbsent(path, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(path, task);
+            }
+        } else {
+            task = existing;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted waiting image derivative: " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ServiceException("Render image derivative failure: " + path, e.getCause());
+        }
+    }
+
+    private File render(AttachmentFile attachmentFile, DerivativeSpec spec, File file) throws IOException {
+        //等待期间其它节点或之前的请求可能已生成
+        if (file.isFile()) {
+            register(file.getPath(), file.length());
+            return file;
+        }
+        try {
+            if (!renderPermits.tryAcquire(renderWaitSeconds, TimeUnit.SECONDS)) {
+                throw new ValidationException("图片处理繁忙，请稍后再试");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted waiting image render permit: " + file, e);
+        }
+        try {
+            return doRender(attachmentFile, spec, file);
+        } finally {
+            renderPermits.release();
+        }
+    }
+
+    private File doRender(AttachmentFile attachmentFile, DerivativeSpec spec, File file) throws IOException {
+        long start = System.currentTimeMillis();
+        BufferedImage source;
+        try (InputStream input = attachmentStorage.get(attachmentFile.getStoragePath())) {
+            if (input == null) {
+                throw new ValidationException("附件文件不存在: " + attachmentFile.getId());
+            }
+            source = readImage(input, attachmentFile);
+        }
+        BufferedImage target = transform(source, spec);
+        Files.createDirectories(file.getParentFile().toPath());
+        File tempFile = new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            if (!ImageIO.write(target, spec.format, tempFile)) {
+                throw new ServiceException("No image writer for format: " + spec.format);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+        renderCount.incrementAndGet();
+        register(file.getPath(), file.length());
+        logger.debug("Rendered image derivative {} in {} ms", file, System.currentTimeMillis() - start);
+        return file;
+    }
+
+    /**
+     * 先读取图片头部的宽高校验像素数，通过后再解码整张图片
+     */
+    private BufferedImage readImage(InputStream input, AttachmentFile attachmentFile) throws IOException {
+        try (ImageInputStream imageInput = ImageIO.createImageInputStream(input)) {
+            Iterator<ImageReader> readers = imageInput == null ? null : ImageIO.getImageReaders(imageInput);
+            if (readers == null || !readers.hasNext()) {
+                throw new ValidationException("附件不是可识别的图片格式: " + attachmentFile.getFileRealName());
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxSourcePixels) {
+                    throw new ValidationException("图片尺寸过大，不能生成缩略图: " + attachmentFile.getFileRealName());
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage transform(BufferedImage source, DerivativeSpec spec) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int width = spec.width;
+        int height = spec.height;
+        if (width == 0) {
+            width = Math.max(1, (int) Math.round((double) sourceWidth * height / sourceHeight));
+        } else if (height == 0) {
+            height = Math.max(1, (int) Math.round((double) sourceHeight * width / sourceWidth));
+        }
+        double scale = spec.crop ? Math.max((double) width / sourceWidth, (double) height / sourceHeight)
+                : Math.min((double) width / sourceWidth, (double) height / sourceHeight);
+        int scaledWidth = Math.max(1, (int) Math.round(sourceWidth * scale));
+        int scaledHeight = Math.max(1, (int) Math.round(sourceHeight * scale));
+        if (!spec.crop) {
+            width = scaledWidth;
+            height = scaledHeight;
+        }
+        boolean opaque = "jpg".equals(spec.format) || "bmp".equals(spec.format);
+        BufferedImage target = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            if (opaque) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+            }
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, (width - scaledWidth) / 2, (height - scaledHeight) / 2, scaledWidth, scaledHeight, null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private File getCacheDir() {
+        if (cacheDir == null) {
+            synchronized (cacheEntries) {
+                if (cacheDir == null) {
+                    File dir = new File(ServletUtils.getStaticFileUploadDir() + "/upload/derivatives");
+                    loadCacheEntries(dir);
+                    cacheDir = dir;
+                }
+            }
+        }
+        return cacheDir;
+    }
+
+    /**
+     * 启动后首次访问时扫描已有缓存文件，按最后修改时间近似恢复访问顺序
+     */
+    private void loadCacheEntries(File dir) {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        Collection<File> files = FileUtils.listFiles(dir, null, true);
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : sorted) {
+            if (file.getName().endsWith(".tmp")) {
+                FileUtils.deleteQuietly(file);
+                continue;
+            }
+            register(file.getPath(), file.length());
+        }
+        logger.info("Loaded {} image derivatives with {} bytes from {}", cacheEntries.size(), cacheBytes, dir);
+    }
+
+    /**
+     * 标记缓存项最近访问
+     *
+     * @return 缓存项存在返回true
+     */
+    private boolean touch(String path) {
+        synchronized (cacheEntries) {
+            return cacheEntries.get(path) != null;
+        }
+    }
+
+    /**
+     * 登记缓存项，超出磁盘预算则删除最久未访问的缓存文件
+     */
+    private void register(String path, long length) {
+        synchronized (cacheEntries) {
+            Long previous = cacheEntries.put(path, length);
+            cacheBytes += length - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> iterator = cacheEntries.entrySet().iterator();
+            while (cacheBytes > cacheBudgetBytes && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                if (eldest.getKey().equals(path)) {
+                    continue;
+                }
+                iterator.remove();
+                cacheBytes -= eldest.getValue();
+                FileUtils.deleteQuietly(new File(eldest.getKey()));
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 删除附件的所有衍生图缓存，一般在附件删除后调用
+     */
+    public void evict(AttachmentFile attachmentFile) {
+        String prefix = attachmentFile.getId() + "_";
+        synchronized (cacheEntries) {
+            Iterator<Map.Entry<String, Long>> iterator = cacheEntries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (new File(entry.getKey()).getName().startsWith(prefix)) {
+                    iterator.remove();
+                    cacheBytes -= entry.getValue();
+                    FileUtils.deleteQuietly(new File(entry.getKey()));
+                }
+            }
+        }
+    }
+
+    public long getCacheBytes() {
+        synchronized (cacheEntries) {
+            return cacheBytes;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getRenderCount() {
+        return renderCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * 衍生图变换规格
+     */
+    private static class DerivativeSpec {
+
+        private final int width;
+
+        private final int height;
+
+        private final boolean crop;
+
+        private final String format;
+
+        private DerivativeSpec(int width, int height, boolean crop, String format) {
+            this.width = width;
+            this.height = height;
+            this.crop = crop;
+            this.format = format;
+        }
+
+        private static DerivativeSpec parse(String spec, String sourceExtension) {
+            Matcher matcher = SPEC_PATTERN.matcher(StringUtils.lowerCase(StringUtils.trimToEmpty(spec)));
+            if (!matcher.matches()) {
+                throw new ValidationException("无效图片规格: " + spec);
+            }
+            int width = Integer.parseInt(matcher.group(1));
+            int height = Integer.parseInt(matcher.group(2));
+            if ((width == 0 && height == 0) || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+                throw new ValidationException("无效图片规格: " + spec);
+            }
+            boolean crop = matcher.group(3) != null && width > 0 && height > 0;
+            String format = matcher.group(4);
+            if (format == null) {
+                format = StringUtils.lowerCase(sourceExtension);
+                if (format == null || !format.matches("jpg|jpeg|png|gif|bmp")) {
+                    format = "png";
+                }
+            }
+            if ("jpeg".equals(format)) {
+                format = "jpg";
+            }
+            return new DerivativeSpec(width, height, crop, format);
+        }
+
+        /**
+         * 规范化的规格标识，用作缓存文件名后缀
+         */
+        private String getKey() {
+            return width + "x" + height + (crop ? "_crop" : "") + "." + format;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.knight.module.sys.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.knight.core.audit.envers.OperationContext;
+import com.knight.core.util.Digests;
+import com.knight.core.util.Encodes;
+import com.knight.core.web.util.ServletUtils;
+import com.knight.module.sys.entity.AttachmentFile;
+import com.knight.support.service.AttachmentStorage;
+import org.apache.commons.io.FileUtils;
+import org.hibernate.service.spi.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 附件上传异步流水线：请求线程只负责把上传流缓冲到临时文件，内容寻址模式下在缓冲的同时计算摘要，不再重复读取文件；
+ * 后续刷盘、移动、保存附件记录各阶段在有界线程池中异步执行
+ * 同时处理中的上传数量（执行中+排队中）受线程数+队列容量限制，超出时在读取上传流之前直接拒绝，避免突发大文件上传占满所有请求线程
+ * <p>
+ * 运行指标：队列深度、处理中数量、拒绝次数、最近统计窗口平均吞吐字节数/秒以及各阶段平均/最大耗时
+ * Date: 2026/10/19
+ * Time: 10:30
+ *
+ * @author Rascal
+ */
+@Component
+public class AttachmentUploadPipeline {
+
+    private final static Logger logger = LoggerFactory.getLogger(AttachmentUploadPipeline.class);
+
+    /*吞吐量统计窗口秒数*/
+    private static final int THROUGHPUT_WINDOW_SECONDS = 5;
+
+    /**
+     * 上传处理阶段
+     */
+    public enum Stage {
+        BUFFER, FSYNC, MOVE, PERSIST
+    }
+
+    @Autowired
+    private AttachmentFileService attachmentFileService;
+
+    @Autowired
+    private AttachmentStorage attachmentStorage;
+
+    @Value("${upload_pipeline_threads:4}")
+    private int threads;
+
+    @Value("${upload_pipeline_queue_capacity:50}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    /*处理中上传许可，数量为线程数+队列容量*/
+    private Semaphore permits;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong completedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final StageMetrics[] stageMetrics = new StageMetrics[Stage.values().length];
+
+    /*吞吐量统计环形数组，按秒记录处理完成字节数，下标为秒数对窗口秒数取模*/
+    private final long[] secondBytes = new long[THROUGHPUT_WINDOW_SECONDS];
+
+    private final long[] secondStamps = new long[THROUGHPUT_WINDOW_SECONDS];
+
+    private long totalBytes;
+
+    @PostConstruct
+    public void start() {
+        for (Stage stage : Stage.values()) {
+            stageMetrics[stage.ordinal()] = new StageMetrics();
+        }
+        permits = new Semaphore(threads + queueCapacity);
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("attachment-upload-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("Attachment upload pipeline shutdown with {} pending uploads", executor.getQueue().size());
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交上传：在当前线程把上传流缓冲到临时文件后立即返回，其余阶段异步执行
+     *
+     * @param input 上传文件流，方法返回前读取完毕并关闭
+     * @param name  上传文件名称
+     * @return 附件对象Future
+     * @throws ServiceException 流水线繁忙拒绝上传
+     */
+    public Future<AttachmentFile> submit(InputStream input, String name) {
+        if (!permits.tryAcquire()) {
+            rejectedCount.incrementAndGet();
+            throw new ServiceException("上传任务繁忙，请稍后重试");
+        }
+        File tempFile = ServletUtils.createUploadTempFile();
+        boolean submitted = false;
+        try {
+            long start = System.nanoTime();
+            //内容寻址模式在缓冲上传流的同时计算摘要，避免异步阶段再次完整读取临时文件
+            MessageDigest messageDigest = ServletUtils.isContentAddressedUpload() ? Digests.createSha1Digest() : null;
+            FileUtils.copyInputStreamToFile(messageDigest == null ? input : new DigestInputStream(input, messageDigest), tempFile);
+            record(Stage.BUFFER, start);
+            String digest = messageDigest == null ? null : Encodes.encodeHex(messageDigest.digest());
+            //异步处理保存附件记录时沿用当前请求的审计操作上下文
+            Future<AttachmentFile> future = executor.submit(OperationContext.wrap(() -> process(tempFile, name, digest)));
+            submitted = true;
+            return future;
+        } catch (RejectedExecutionException e) {
+            //已完成任务释放许可后线程尚未归还线程池的短暂间隙可能出现
+            rejectedCount.incrementAndGet();
+            throw new ServiceException("上传任务繁忙，请稍后重试");
+        } catch (IOException e) {
+            throw new ServiceException("Buffer upload file failure: " + name, e);
+        } finally {
+            if (!submitted) {
+                FileUtils.deleteQuietly(tempFile);
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * @param digest 内容寻址模式下的内容摘要，普通模式为null
+     */
+    private AttachmentFile process(File tempFile, String name, String digest) throws IOException {
+        try {
+            long length = tempFile.length();
+            long start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            record(Stage.FSYNC, start);
+
+            AttachmentFile attachmentFile;
+            if (digest != null) {
+                //内容寻址模式下登记引用后在事务提交时移动存储块文件
+                start = System.nanoTime();
+                attachmentFile = ServletUtils.saveContentAddressedUploadFile(tempFile, name, digest);
+                record(Stage.PERSIST, start);
+            } else {
+                start = System.nanoTime();
+                attachmentFile = AttachmentFile.buildInstance(name, length);
+                String path = attachmentFile.getStoragePath();
+                attachmentStorage.put(path, tempFile);
+                record(Stage.MOVE, start);
+
+                start = System.nanoTime();
+                try {
+                    attachmentFile = attachmentFileService.save(attachmentFile);
+                } catch (RuntimeException e) {
+                    //附件记录保存失败则删除已移入存储的文件，避免遗留没有记录的文件
+                    try {
+                        attachmentStorage.delete(path);
+                    } catch (IOException ex) {
+                        logger.warn("Delete stored upload file {} failure", path, ex);
+                    }
+                    throw e;
+                }
+                record(Stage.PERSIST, start);
+            }
+            completedCount.incrementAndGet();
+            recordBytes(length);
+            return attachmentFile;
+        } catch (IOException | RuntimeException e) {
+            failedCount.incrementAndGet();
+            logger.warn("Process upload file {} failure", name, e);
+            throw e;
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+            permits.release();
+        }
+    }
+
+    private void record(Stage stage, long startNanos) {
+        stageMetrics[stage.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    private synchronized void recordBytes(long bytes) {
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % THROUGHPUT_WINDOW_SECONDS);
+        if (secondStamps[slot] != second) {
+            secondStamps[slot] = second;
+            secondBytes[slot] = 0;
+        }
+        secondBytes[slot] += bytes;
+        totalBytes += bytes;
+    }
+
+    /**
+     * 排队等待处理的上传数量
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 已接收尚未处理完成的上传数量（含缓冲中、排队中、执行中）
+     */
+    public int getInFlightCount() {
+        return threads + queueCapacity - permits.availablePermits();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 最近统计窗口内平均每秒处理完成的字节数，读取时按当前时间计算，没有新的上传时随窗口滑动衰减到0
+     */
+    public synchronized long getBytesPerSecond() {
+        long second = System.currentTimeMillis() / 1000;
+        long bytes = 0;
+        for (int i = 0; i < THROUGHPUT_WINDOW_SECONDS; i++) {
+            if (second - secondStamps[i] < THROUGHPUT_WINDOW_SECONDS) {
+                bytes += secondBytes[i];
+            }
+        }
+        return bytes / THROUGHPUT_WINDOW_SECONDS;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public double getStageAverageMillis(Stage stage) {
+        return stageMetrics[stage.ordinal()].getAverageMillis();
+    }
+
+    public double getStageMaxMillis(Stage stage) {
+        return stageMetrics[stage.ordinal()].getMaxMillis();
+    }
+
+    /**
+     * 单个处理阶段耗时统计
+     */
+    private static class StageMetrics {
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get())) {
+                if (maxNanos.compareAndSet(max, nanos)) {
+                    break;
+                }
+            }
+        }
+
+        private double getAverageMillis() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / 1000000.0 / n;
+        }
+
+        private double getMaxMillis() {
+            return maxNanos.get() / 1000000.0;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.knight.module.sys.service;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 配置属性数据变更事件，在变更事务提交之后发布
+ * <p>
+ * Date: 2026/10/19
+ * Time: 00:12
+ *
+ * @author Rascal
+ */
+public class ConfigPropertyChangeEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 6248150307713962381L;
+
+    /*变更的配置属性代码*/
+    private final String propKey;
+
+    public ConfigPropertyChangeEvent(Object source, String propKey) {
+        super(source);
+        this.propKey = propKey;
+    }
+
+    public String getPropKey() {
+        return propKey;
+    }
+}
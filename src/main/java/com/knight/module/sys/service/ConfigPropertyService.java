@@ -1,12 +1,19 @@
 package com.knight.module.sys.service;
 
+import com.google.common.collect.Maps;
 import com.knight.core.dao.jpa.BaseDao;
 import com.knight.core.service.BaseService;
 import com.knight.module.sys.dao.ConfigPropertyDao;
 import com.knight.module.sys.entity.ConfigProperty;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * Date: 2015/11/26
@@ -21,6 +28,9 @@ public class ConfigPropertyService extends BaseService<ConfigProperty, Long> {
     @Autowired
     private ConfigPropertyDao configPropertyDao;
 
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
     protected BaseDao<ConfigProperty, Long> getEntityDao() {
         return configPropertyDao;
     }
@@ -38,4 +48,58 @@ public class ConfigPropertyService extends BaseService<ConfigProperty, Long> {
         }
         return null;
     }
+
+    /**
+     * 查询全部配置属性的代码和简单属性值，只查询两列不加载实体对象
+     *
+     * @return key为propKey，value为simpleValue，simpleValue为null的属性不包含在内
+     */
+    @Transactional(readOnly = true)
+    public Map<String, String> findAllSimpleValues() {
+        List<Map<String, Object>> rows = findProjection(null, null, "propKey", "simpleValue");
+        Map<String, String> values = Maps.newHashMapWithExpectedSize(rows.size());
+        for (Map<String, Object> row : rows) {
+            if (row.get("simpleValue") != null) {
+                values.put((String) row.get("propKey"), (String) row.get("simpleValue"));
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public ConfigProperty save(ConfigProperty entity) {
+        ConfigProperty saved = super.save(entity);
+        publishChangeAfterCommit(saved.getPropKey());
+        return saved;
+    }
+
+    @Override
+    public int saveInBatch(Iterable<ConfigProperty> entities, int batchSize) {
+        int count = super.saveInBatch(entities, batchSize);
+        publishChangeAfterCommit(null);
+        return count;
+    }
+
+    @Override
+    public void delete(ConfigProperty entity) {
+        super.delete(entity);
+        publishChangeAfterCommit(entity.getPropKey());
+    }
+
+    /**
+     * 在当前事务提交之后发布配置变更事件，没有事务则直接发布
+     */
+    private void publishChangeAfterCommit(final String propKey) {
+        final ConfigPropertyChangeEvent event = new ConfigPropertyChangeEvent(this, propKey);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    applicationEventPublisher.publishEvent(event);
+                }
+            });
+        } else {
+            applicationEventPublisher.publishEvent(event);
+        }
+    }
 }
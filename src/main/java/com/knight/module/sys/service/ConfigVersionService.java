@@ -0,0 +1,51 @@
+package com.knight.module.sys.service;
+
+import com.knight.core.dao.jpa.BaseDao;
+import com.knight.core.service.BaseService;
+import com.knight.module.sys.dao.ConfigVersionDao;
+import com.knight.module.sys.entity.ConfigVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Date: 2026/10/19
+ * Time: 00:35
+ *
+ * @author Rascal
+ */
+@Service
+@Transactional
+public class ConfigVersionService extends BaseService<ConfigVersion, Long> {
+
+    @Autowired
+    private ConfigVersionDao configVersionDao;
+
+    protected BaseDao<ConfigVersion, Long> getEntityDao() {
+        return configVersionDao;
+    }
+
+    @Transactional(readOnly = true)
+    public ConfigVersion findByChannel(String channel) {
+        return configVersionDao.findByChannel(channel);
+    }
+
+    /**
+     * 递增变更通道版本号，通道记录不存在则创建
+     * 一般在配置变更事务afterCommit回调中调用，因此必须在独立新事务中执行才能提交
+     *
+     * @param channel     变更通道
+     * @param propKey     变更属性代码，批量变更为null
+     * @param changedNode 变更节点标识
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void increaseVersion(String channel, String propKey, String changedNode) {
+        long now = System.currentTimeMillis();
+        if (configVersionDao.increaseVersion(channel, propKey, changedNode, now) == 0) {
+            ConfigVersion configVersion = new ConfigVersion();
+            configVersion.setChannel(channel).setVersionNo(1L).setPropKey(propKey).setChangedNode(changedNode).setChangedTime(now);
+            configVersionDao.save(configVersion);
+        }
+    }
+}
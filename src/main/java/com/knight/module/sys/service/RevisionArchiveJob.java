@@ -0,0 +1,219 @@
+package com.knight.module.sys.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.knight.core.audit.envers.RevisionArchiveFile;
+import com.knight.module.sys.entity.RevisionArchive;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 审计历史归档定时任务，在service/spring-schedule.xml中定义并按audit_archive_cron调度，audit_archive_retention_days大于0时生效
+ * <p>
+ * 按实体逐个处理：先按归档文件内容补删上次已归档但未删完的审计记录，再按版本号分批把超过保留期、
+ * 且已被同一实体在截止版本内的更新记录取代的审计记录写入归档文件，每个实体的最新记录保留在审计表中；
+ * 单个文件达到audit_archive_file_max_rows行后关闭并登记索引，随后按文件中的版本号和主键逐组删除已归档记录，
+ * 迟到写入的旧版本记录（异步审计补写、长事务）不会被误删，在之后的归档中处理。
+ * 每批读取或删除都是独立的短事务，批次之间暂停audit_archive_batch_pause_millis毫秒，降低对在线业务的影响
+ * <p>
+ * Date: 2026/10/19
+ * Time: 17:50
+ *
+ * @author Rascal
+ */
+public class RevisionArchiveJob {
+
+    private final static Logger logger = LoggerFactory.getLogger(RevisionArchiveJob.class);
+
+    private RevisionArchiveService revisionArchiveService;
+
+    /*审计记录保留天数，小于等于0不归档*/
+    private int retentionDays;
+
+    private int batchRevisions = 500;
+
+    private long fileMaxRows = 200000;
+
+    private long batchPauseMillis = 100;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile boolean stopped;
+
+    public void setRevisionArchiveService(RevisionArchiveService revisionArchiveService) {
+        this.revisionArchiveService = revisionArchiveService;
+    }
+
+    public void setRetentionDays(int retentionDays) {
+        this.retentionDays = retentionDays;
+    }
+
+    public void setBatchRevisions(int batchRevisions) {
+        this.batchRevisions = batchRevisions;
+    }
+
+    public void setFileMaxRows(long fileMaxRows) {
+        this.fileMaxRows = fileMaxRows;
+    }
+
+    public void setBatchPauseMillis(long batchPauseMillis) {
+        this.batchPauseMillis = batchPauseMillis;
+    }
+
+    /**
+     * 停止正在执行的归档，由spring-schedule.xml中bean定义的destroy-method调用
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * 归档所有被审计实体中超过保留期的审计记录
+     */
+    public void archive() {
+        if (retentionDays <= 0 || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Long cutoffRev = revisionArchiveService.findArchiveCutoffRev(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays)));
+            if (cutoffRev == null) {
+                return;
+            }
+            for (String entityName : revisionArchiveService.findAuditedEntityNames()) {
+                if (stopped) {
+                    break;
+                }
+                try {
+                    archiveEntity(entityName, cutoffRev);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.warn("Archive revisions of {} failure", entityName, e);
+                }
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void archiveEntity(String entityName, long cutoffRev) throws IOException, InterruptedException {
+        File entityDir = new File(revisionArchiveService.getArchiveRootDir(), StringUtils.substringAfterLast("." + entityName, "."));
+        String idColumn = revisionArchiveService.getIdentifierPropertyName(entityName);
+        String revColumn = revisionArchiveService.getRevisionColumnName();
+        for (RevisionArchive archive : revisionArchiveService.findUnpurgedArchives(entityName)) {
+            purgeArchived(entityName, archive, new File(revisionArchiveService.getArchiveRootDir(), archive.getArchiveFile()), idColumn, revColumn);
+        }
+        Files.createDirectories(entityDir.toPath());
+        //已归档的记录都已删除，每次从头扫描，迟到写入的旧版本记录同样可以被处理
+        long lastRev = 0;
+        while (!stopped && lastRev < cutoffRev) {
+            File tempFile = new File(entityDir, entityDir.getName() + "-" + System.currentTimeMillis() + ".gz.tmp");
+            long fromRev = 0;
+            long toRev = lastRev;
+            long rowCount;
+            Long minEntityId;
+            Long maxEntityId;
+            try (RevisionArchiveFile.Writer writer = RevisionArchiveFile.create(tempFile, idColumn)) {
+                while (!stopped && writer.getRowCount() < fileMaxRows) {
+                    List<Long> revs = revisionArchiveService.findAuditRevisions(entityName, toRev, cutoffRev, batchRevisions);
+                    if (revs.isEmpty()) {
+                        break;
+                    }
+                    List<Map<String, Object>> rows = revisionArchiveService.findAuditRows(entityName, revs, cutoffRev);
+                    writer.writeRowGroup(rows);
+                    if (fromRev == 0) {
+                        fromRev = revs.get(0);
+                    }
+                    toRev = revs.get(revs.size() - 1);
+                    pause();
+                }
+                rowCount = writer.getRowCount();
+                minEntityId = writer.getMinKey();
+                maxEntityId = writer.getMaxKey();
+            } catch (IOException | RuntimeException e) {
+                FileUtils.deleteQuietly(tempFile);
+                throw e;
+            }
+            if (rowCount == 0) {
+                FileUtils.deleteQuietly(tempFile);
+                break;
+            }
+            //迟到记录的版本号可能落在已有文件的区间内，文件名附加时间戳避免覆盖
+            String fileName = entityDir.getName() + "-" + fromRev + "-" + toRev + "-" + System.currentTimeMillis() + ".gz";
+            File archiveFile = new File(entityDir, fileName);
+            Files.move(tempFile.toPath(), archiveFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            RevisionArchive archive = revisionArchiveService.saveArchive(entityName, entityDir.getName() + "/" + fileName, fromRev, toRev,
+                    rowCount, archiveFile.length(), minEntityId, maxEntityId);
+            logger.info("Archived {} revision rows of {} from rev {} to {} into {}", rowCount, entityName, fromRev, toRev, archiveFile);
+            purgeArchived(entityName, archive, archiveFile, idColumn, revColumn);
+            lastRev = toRev;
+        }
+    }
+
+    /**
+     * 按归档文件中的版本号和实体主键逐个行组删除审计表记录，只删除确实写入文件的记录，全部删除后标记归档完成
+     */
+    private void purgeArchived(final String entityName, RevisionArchive archive, File archiveFile, final String idColumn, final String revColumn)
+            throws IOException, InterruptedException {
+        final long[] deleted = new long[1];
+        try {
+            RevisionArchiveFile.readColumns(archiveFile, Sets.newHashSet(idColumn, revColumn), new RevisionArchiveFile.RowGroupHandler() {
+                @Override
+                public void handle(Map<String, Object[]> columns, int rowCount) throws IOException {
+                    if (stopped) {
+                        throw new InterruptedIOException("Revision archive job stopped");
+                    }
+                    Object[] ids = columns.get(idColumn);
+                    Object[] revs = columns.get(revColumn);
+                    Map<Long, List<Object>> idsByRev = Maps.newLinkedHashMap();
+                    for (int row = 0; row < rowCount; row++) {
+                        Long rev = ((Number) revs[row]).longValue();
+                        List<Object> revIds = idsByRev.get(rev);
+                        if (revIds == null) {
+                            revIds = Lists.newArrayList();
+                            idsByRev.put(rev, revIds);
+                        }
+                        revIds.add(ids[row]);
+                    }
+                    deleted[0] += revisionArchiveService.deleteAuditRows(entityName, idsByRev);
+                    try {
+                        pause();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Revision archive job interrupted");
+                    }
+                }
+            });
+        } catch (InterruptedIOException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException(e.getMessage());
+            }
+            return;
+        }
+        revisionArchiveService.markPurged(archive.getId());
+        if (deleted[0] > 0) {
+            logger.info("Deleted {} archived revision rows of {} in {}", deleted[0], entityName, archiveFile);
+        }
+    }
+
+    private void pause() throws InterruptedException {
+        if (batchPauseMillis > 0) {
+            Thread.sleep(batchPauseMillis);
+        }
+    }
+}
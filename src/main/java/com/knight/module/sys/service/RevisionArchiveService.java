@@ -0,0 +1,331 @@
+package com.knight.module.sys.service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.knight.core.audit.envers.EnversSupport;
+import com.knight.core.audit.envers.ExtDefaultRevisionEntity;
+import com.knight.core.audit.envers.RevisionArchiveFile;
+import com.knight.core.dao.jpa.BaseDao;
+import com.knight.core.service.BaseService;
+import com.knight.core.web.filter.WebAppContextInitFilter;
+import com.knight.module.sys.dao.RevisionArchiveDao;
+import com.knight.module.sys.entity.RevisionArchive;
+import org.apache.commons.lang3.StringUtils;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.envers.configuration.spi.AuditConfiguration;
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.service.spi.ServiceException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Persistable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 审计历史归档：把超过保留期的Envers审计表记录写入列式压缩归档文件并登记归档索引，再分批删除审计表记录；
+ * 各方法在独立的短事务中处理一批版本，由RevisionArchiveJob按批调用，避免长时间占用数据库锁影响在线业务
+ * <p>
+ * 只归档在截止版本内已被同一实体更新版本取代的记录，每个实体截止版本内的最新记录保留在审计表中，
+ * 保证Envers按版本重建实体状态时仍能找到截止版本之后各版本对应的记录
+ * <p>
+ * Date: 2026/10/19
+ * Time: 17:30
+ *
+ * @author Rascal
+ */
+@Service
+@Transactional
+public class RevisionArchiveService extends BaseService<RevisionArchive, Long> {
+
+    @Autowired
+    private RevisionArchiveDao revisionArchiveDao;
+
+    @Value("${audit_archive_dir:}")
+    private String archiveDir;
+
+    private volatile AuditConfiguration auditConfiguration;
+
+    private volatile File archiveRootDir;
+
+    @Override
+    protected BaseDao<RevisionArchive, Long> getEntityDao() {
+        return revisionArchiveDao;
+    }
+
+    /**
+     * 归档文件根目录，未配置时取用户主目录下的.knight/audit-archive；
+     * 归档文件包含完整审计历史，目录位于Web应用根目录下时可被直接下载，因此拒绝使用
+     */
+    public File getArchiveRootDir() {
+        if (archiveRootDir == null) {
+            File dir = new File(StringUtils.isNotBlank(archiveDir) ? archiveDir : System.getProperty("user.home") + "/.knight/audit-archive");
+            String webRoot = WebAppContextInitFilter.getInitedWebContextRealPath();
+            if (StringUtils.isNotBlank(webRoot)) {
+                try {
+                    String dirPath = dir.getCanonicalPath();
+                    String webRootPath = new File(webRoot).getCanonicalPath();
+                    if (dirPath.equals(webRootPath) || dirPath.startsWith(webRootPath + File.separator)) {
+                        throw new ServiceException("Revision archive dir must not be under web root: " + dirPath);
+                    }
+                } catch (IOException e) {
+                    throw new ServiceException("Resolve revision archive dir failure: " + dir, e);
+                }
+            }
+            archiveRootDir = dir;
+        }
+        return archiveRootDir;
+    }
+
+    private SessionFactoryImplementor getSessionFactory() {
+        return getEntityManager().getEntityManagerFactory().unwrap(SessionFactoryImplementor.class);
+    }
+
+    private AuditConfiguration getAuditConfiguration() {
+        if (auditConfiguration == null) {
+            auditConfiguration = EnversSupport.getAuditConfiguration(getSessionFactory());
+        }
+        return auditConfiguration;
+    }
+
+    private String getAuditEntityName(String entityName) {
+        return getAuditConfiguration().getAuditEntCfg().getAuditEntityName(entityName);
+    }
+
+    /**
+     * 实体主键属性名，即归档文件中的主键列名
+     */
+    public String getIdentifierPropertyName(String entityName) {
+        return getSessionFactory().getClassMetadata(entityName).getIdentifierPropertyName();
+    }
+
+    private String getRevisionNumberPath() {
+        return "e." + getAuditConfiguration().getAuditEntCfg().getRevisionNumberPath();
+    }
+
+    /**
+     * 所有被审计的实体名称
+     */
+    @Transactional(readOnly = true)
+    public List<String> findAuditedEntityNames() {
+        AuditConfiguration auditCfg = getAuditConfiguration();
+        List<String> entityNames = Lists.newArrayList();
+        for (String entityName : getSessionFactory().getAllClassMetadata().keySet()) {
+            if (auditCfg.getEntCfg().isVersioned(entityName)) {
+                entityNames.add(entityName);
+            }
+        }
+        Collections.sort(entityNames);
+        return entityNames;
+    }
+
+    /**
+     * 版本时间早于指定时间的最大版本号
+     *
+     * @return 没有符合条件的版本返回null
+     */
+    @Transactional(readOnly = true)
+    public Long findArchiveCutoffRev(Date before) {
+        return getEntityManager().createQuery("select max(r.rev) from " + ExtDefaultRevisionEntity.class.getName() + " r where r.revstmp < :before", Long.class)
+                .setParameter("before", before).getSingleResult();
+    }
+
+    /**
+     * 审计记录中版本号对应的列名，与findAuditRows展开后的列名一致
+     */
+    public String getRevisionColumnName() {
+        return getAuditConfiguration().getAuditEntCfg().getRevisionFieldName();
+    }
+
+    private String getEntityIdPath(String alias, String entityName) {
+        return alias + "." + getAuditConfiguration().getAuditEntCfg().getOriginalIdPropName() + "." + getIdentifierPropertyName(entityName);
+    }
+
+    /**
+     * 审计记录已被同一实体在截止版本内的更新记录取代的条件
+     */
+    private String supersededCondition(String entityName) {
+        String revPath = getAuditConfiguration().getAuditEntCfg().getRevisionNumberPath();
+        return "exists (select n." + revPath + " from " + getAuditEntityName(entityName) + " n where "
+                + getEntityIdPath("n", entityName) + " = " + getEntityIdPath("e", entityName)
+                + " and n." + revPath + " > e." + revPath + " and n." + revPath + " <= :cutoffRev)";
+    }
+
+    /**
+     * 按版本号升序查询版本号在(afterRev, cutoffRev]区间内、且包含已被截止版本内更新记录取代的审计记录的版本号
+     */
+    @Transactional(readOnly = true)
+    public List<Long> findAuditRevisions(String entityName, long afterRev, long cutoffRev, int limit) {
+        String revPath = getRevisionNumberPath();
+        List<?> revs = getEntityManager().createQuery("select distinct " + revPath + " from " + getAuditEntityName(entityName) + " e where "
+                + revPath + " > :afterRev and " + revPath + " <= :cutoffRev and " + supersededCondition(entityName) + " order by " + revPath)
+                .setParameter("afterRev", afterRev).setParameter("cutoffRev", cutoffRev).setMaxResults(limit).getResultList();
+        List<Long> result = Lists.newArrayListWithCapacity(revs.size());
+        for (Object rev : revs) {
+            result.add(((Number) rev).longValue());
+        }
+        return result;
+    }
+
+    /**
+     * 查询指定版本中已被截止版本内更新记录取代的审计表记录并展开为扁平的属性Map：
+     * 复合主键中的实体主键属性和版本号（REV列）提升为独立列，关联对象转换为主键
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> findAuditRows(String entityName, Collection<Long> revs, long cutoffRev) {
+        AuditConfiguration auditCfg = getAuditConfiguration();
+        String originalIdPropName = auditCfg.getAuditEntCfg().getOriginalIdPropName();
+        String revisionFieldName = auditCfg.getAuditEntCfg().getRevisionFieldName();
+        List<?> list = getEntityManager().createQuery("from " + getAuditEntityName(entityName) + " e where "
+                + getRevisionNumberPath() + " in (:revs) and " + supersededCondition(entityName))
+                .setParameter("revs", revs).setParameter("cutoffRev", cutoffRev).getResultList();
+        List<Map<String, Object>> rows = Lists.newArrayListWithCapacity(list.size());
+        for (Object item : list) {
+            Map<String, Object> row = Maps.newLinkedHashMap();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) item).entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                if (key.equals(originalIdPropName) && entry.getValue() instanceof Map) {
+                    for (Map.Entry<?, ?> idEntry : ((Map<?, ?>) entry.getValue()).entrySet()) {
+                        String idKey = String.valueOf(idEntry.getKey());
+                        flatten(row, idKey, idKey.equals(revisionFieldName) ? identifier(idEntry.getValue()) : idEntry.getValue());
+                    }
+                } else {
+                    flatten(row, key, entry.getValue());
+                }
+            }
+            rows.add(row);
+        }
+        //释放本批次加载的审计记录
+        getEntityManager().clear();
+        return rows;
+    }
+
+    private void flatten(Map<String, Object> row, String key, Object value) {
+        //动态Map实体中$type$等内部属性
+        if (key.startsWith("$")) {
+            return;
+        }
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                flatten(row, key + "." + entry.getKey(), entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            //审计表记录本身不含集合列
+            return;
+        } else if (value instanceof HibernateProxy || value instanceof Persistable || value instanceof ExtDefaultRevisionEntity) {
+            row.put(key, identifier(value));
+        } else if (value == null || value instanceof Serializable) {
+            row.put(key, value);
+        } else {
+            row.put(key, String.valueOf(value));
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Serializable identifier(Object value) {
+        if (value instanceof HibernateProxy) {
+            return ((HibernateProxy) value).getHibernateLazyInitializer().getIdentifier();
+        }
+        if (value instanceof ExtDefaultRevisionEntity) {
+            return ((ExtDefaultRevisionEntity) value).getRev();
+        }
+        if (value instanceof Persistable) {
+            return ((Persistable) value).getId();
+        }
+        return (Serializable) value;
+    }
+
+    /**
+     * 删除已写入归档文件的审计表记录，按版本号和实体主键精确匹配，不影响同一版本中未归档的记录
+     *
+     * @param idsByRev 版本号到该版本已归档实体主键的映射
+     * @return 删除行数
+     */
+    public int deleteAuditRows(String entityName, Map<Long, ? extends Collection<?>> idsByRev) {
+        String hql = "delete from " + getAuditEntityName(entityName) + " e where " + getRevisionNumberPath() + " = :rev and "
+                + getEntityIdPath("e", entityName) + " in (:ids)";
+        int deleted = 0;
+        for (Map.Entry<Long, ? extends Collection<?>> entry : idsByRev.entrySet()) {
+            for (List<?> ids : Lists.partition(Lists.newArrayList(entry.getValue()), getInChunkSize())) {
+                deleted += getEntityManager().createQuery(hql).setParameter("rev", entry.getKey()).setParameter("ids", ids).executeUpdate();
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * 审计记录尚未从审计表删除完成的归档文件
+     */
+    @Transactional(readOnly = true)
+    public List<RevisionArchive> findUnpurgedArchives(String entityName) {
+        return revisionArchiveDao.findUnpurged(entityName);
+    }
+
+    /**
+     * 标记归档文件中的审计记录已从审计表删除
+     */
+    public void markPurged(Long archiveId) {
+        revisionArchiveDao.findOne(archiveId).setPurged(Boolean.TRUE);
+    }
+
+    /**
+     * 登记归档文件索引，版本时间范围取自版本记录
+     *
+     * @param archiveFile 相对归档根目录的文件路径
+     * @param minEntityId 文件内最小实体主键，主键不是整数时为空
+     * @param maxEntityId 文件内最大实体主键，主键不是整数时为空
+     */
+    public RevisionArchive saveArchive(String entityName, String archiveFile, long fromRev, long toRev, long rowCount, long fileLength,
+                                       Long minEntityId, Long maxEntityId) {
+        Object[] timeRange = getEntityManager().createQuery("select min(r.revstmp), max(r.revstmp) from "
+                + ExtDefaultRevisionEntity.class.getName() + " r where r.rev between :fromRev and :toRev", Object[].class)
+                .setParameter("fromRev", fromRev).setParameter("toRev", toRev).getSingleResult();
+        RevisionArchive archive = new RevisionArchive();
+        archive.setEntityName(entityName).setArchiveFile(archiveFile).setFromRev(fromRev).setToRev(toRev)
+                .setRowCount(rowCount).setFileLength(fileLength).setMinEntityId(minEntityId).setMaxEntityId(maxEntityId);
+        if (timeRange[0] != null) {
+            archive.setFromTime(((Date) timeRange[0]).getTime()).setToTime(((Date) timeRange[1]).getTime());
+        }
+        return revisionArchiveDao.save(archive);
+    }
+
+    /**
+     * 查询实体已归档的历史版本记录，按归档文件的版本时间范围和实体主键范围筛选需要读取的文件，
+     * 文件内再按行组主键范围跳过不包含该实体的行组
+     *
+     * @param entityClass 实体类
+     * @param id          实体主键
+     * @param startDate   版本时间起始，为空不限制
+     * @param endDate     版本时间截止，为空不限制
+     * @return 归档记录列表，属性含实体属性、主键、REV版本号及REVTYPE操作类型
+     */
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> findArchivedRevisions(Class<?> entityClass, Serializable id, Date startDate, Date endDate) {
+        String entityName = entityClass.getName();
+        String idColumn = getIdentifierPropertyName(entityName);
+        long startTime = startDate == null ? Long.MIN_VALUE : startDate.getTime();
+        long endTime = endDate == null ? Long.MAX_VALUE : endDate.getTime();
+        List<RevisionArchive> archives = id instanceof Long || id instanceof Integer
+                ? revisionArchiveDao.findByEntityNameAndIdAndTimeRange(entityName, ((Number) id).longValue(), startTime, endTime)
+                : revisionArchiveDao.findByEntityNameAndTimeRange(entityName, startTime, endTime);
+        List<Map<String, Object>> rows = Lists.newArrayList();
+        File rootDir = getArchiveRootDir();
+        for (RevisionArchive archive : archives) {
+            File file = new File(rootDir, archive.getArchiveFile());
+            try {
+                rows.addAll(RevisionArchiveFile.read(file, idColumn, id));
+            } catch (IOException e) {
+                throw new ServiceException("Read revision archive file failure: " + file, e);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,64 @@
+package com.knight.support.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 附件文件存储扩展接口，以AttachmentFile.getStoragePath()作为存储key，屏蔽附件在磁盘上的实际组织方式
+ * 框架提供按key摘要分目录的LocalShardedFileStorage（默认）和把小文件合并写入追加式包文件的PackFileStorage，
+ * 也可基于对象存储等自行实现
+ * <p>
+ * Date: 2026/10/19
+ * Time: 11:10
+ *
+ * @author Rascal
+ */
+public interface AttachmentStorage {
+
+    /**
+     * 保存文件，已存在相同key则覆盖
+     *
+     * @param key    存储key
+     * @param source 已写入完成的临时文件，调用后由存储实现移动或复制，调用方不应再使用
+     */
+    void put(String key, File source) throws IOException;
+
+    /**
+     * 读取完整文件内容，调用方负责关闭
+     *
+     * @return 不存在返回null
+     */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * 读取文件指定区间内容，调用方负责关闭
+     *
+     * @param offset 起始位置
+     * @param length 读取字节数
+     * @return 不存在返回null
+     */
+    InputStream get(String key, long offset, long length) throws IOException;
+
+    /**
+     * 把文件指定区间内容直接传输到目标通道，文件型存储基于FileChannel.transferTo实现
+     *
+     * @return 实际传输字节数
+     */
+    long transferTo(String key, long offset, long length, WritableByteChannel target) throws IOException;
+
+    /**
+     * 文件字节数，不存在返回-1
+     */
+    long length(String key);
+
+    boolean exists(String key);
+
+    /**
+     * 删除文件
+     *
+     * @return 文件存在并已删除返回true
+     */
+    boolean delete(String key) throws IOException;
+}
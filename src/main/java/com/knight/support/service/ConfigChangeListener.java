@@ -0,0 +1,20 @@
+package com.knight.support.service;
+
+/**
+ * 配置变更通知监听接口
+ * <p>
+ * Date: 2026/10/19
+ * Time: 00:40
+ *
+ * @author Rascal
+ */
+public interface ConfigChangeListener {
+
+    /**
+     * 收到配置变更通知
+     *
+     * @param propKey     变更属性代码，批量变更为null
+     * @param changedTime 变更发生时间戳毫秒数，用于计算传播延迟
+     */
+    void onConfigChange(String propKey, long changedTime);
+}
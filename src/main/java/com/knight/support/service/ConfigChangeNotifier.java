@@ -0,0 +1,27 @@
+package com.knight.support.service;
+
+/**
+ * 集群配置变更通知通道扩展接口：当前节点保存配置后通过publish广播，其它节点订阅的监听器收到通知后刷新本地配置快照
+ * 框架提供基于数据库版本表轮询的DbPollingConfigChangeNotifier和用于单机/测试的InProcessConfigChangeNotifier，
+ * 也可基于消息队列、Redis发布订阅等自行实现
+ * <p>
+ * Date: 2026/10/19
+ * Time: 00:41
+ *
+ * @author Rascal
+ */
+public interface ConfigChangeNotifier {
+
+    /**
+     * 广播配置变更，一般在变更事务提交之后调用；发布方自身已完成刷新，实现类不应再通知publisher
+     *
+     * @param propKey   变更属性代码，批量变更为null
+     * @param publisher 发布变更的本节点监听器
+     */
+    void publish(String propKey, ConfigChangeListener publisher);
+
+    /**
+     * 注册配置变更监听器
+     */
+    void subscribe(ConfigChangeListener listener);
+}
@@ -0,0 +1,155 @@
+package com.knight.support.service;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * 类型化配置参数句柄：持有已解析好的参数值，配置变更时由DynamicConfigService重新解析更新并通知监听器
+ * 业务代码一般在初始化时获取句柄保存为成员变量，热点路径直接调用get()，只是一次volatile读取
+ * <p>
+ * Date: 2026/10/19
+ * Time: 01:12
+ *
+ * @author Rascal
+ */
+public class ConfigValue<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConfigValue.class);
+
+    private final String key;
+
+    private final Function<String, T> parser;
+
+    private final T defaultValue;
+
+    private final List<ConfigValueListener<T>> listeners = new CopyOnWriteArrayList<>();
+
+    /*当前已解析的参数值*/
+    private volatile T value;
+
+    ConfigValue(String key, Function<String, T> parser, T defaultValue, String rawValue) {
+        this.key = key;
+        this.parser = parser;
+        this.defaultValue = defaultValue;
+        this.value = parse(rawValue);
+    }
+
+    /**
+     * 获取当前参数值
+     */
+    public T get() {
+        return value;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 注册参数值变更监听器
+     */
+    public ConfigValue<T> addListener(ConfigValueListener<T> listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * 按最新原始字符串值重新解析，值有变化则更新并通知监听器
+     */
+    void refresh(String rawValue) {
+        T newValue = parse(rawValue);
+        T oldValue = value;
+        if (Objects.equals(oldValue, newValue)) {
+            return;
+        }
+        value = newValue;
+        for (ConfigValueListener<T> listener : listeners) {
+            try {
+                listener.onChange(key, oldValue, newValue);
+            } catch (Exception e) {
+                logger.warn("Config value listener failure for " + key, e);
+            }
+        }
+    }
+
+    private T parse(String rawValue) {
+        if (StringUtils.isBlank(rawValue)) {
+            return defaultValue;
+        }
+        try {
+            return parser.apply(rawValue.trim());
+        } catch (RuntimeException e) {
+            logger.warn("Invalid config property {}={}, use default value {}", key, rawValue, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 解析时长字符串，支持ms/s/m/h/d单位后缀，无单位按毫秒处理，如500ms、30s、5m、2h、1d
+     */
+    static Duration parseDuration(String text) {
+        String value = text.trim().toLowerCase();
+        long multiplier = 1L;
+        if (value.endsWith("ms")) {
+            value = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("s")) {
+            multiplier = 1000L;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("m")) {
+            multiplier = 60 * 1000L;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("h")) {
+            multiplier = 60 * 60 * 1000L;
+            value = value.substring(0, value.length() - 1);
+        } else if (value.endsWith("d")) {
+            multiplier = 24 * 60 * 60 * 1000L;
+            value = value.substring(0, value.length() - 1);
+        }
+        return new Duration(Long.parseLong(value.trim()) * multiplier);
+    }
+
+    /**
+     * 解析容量字符串为字节数，支持B/KB/MB/GB/TB单位后缀（不区分大小写，可省略B），无单位按字节处理，如512KB、10M、1GB
+     */
+    static Long parseSize(String text) {
+        String value = text.trim().toUpperCase();
+        if (value.endsWith("B")) {
+            value = value.substring(0, value.length() - 1);
+        }
+        long multiplier = 1L;
+        if (value.endsWith("K")) {
+            multiplier = 1024L;
+        } else if (value.endsWith("M")) {
+            multiplier = 1024L * 1024;
+        } else if (value.endsWith("G")) {
+            multiplier = 1024L * 1024 * 1024;
+        } else if (value.endsWith("T")) {
+            multiplier = 1024L * 1024 * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value.trim()) * multiplier;
+    }
+
+    /**
+     * 解析逗号分隔的字符串列表，忽略空白项
+     */
+    static List<String> parseList(String text) {
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (String item : StringUtils.split(text, ",")) {
+            if (StringUtils.isNotBlank(item)) {
+                builder.add(item.trim());
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,21 @@
+package com.knight.support.service;
+
+/**
+ * 类型化配置参数值变更监听接口
+ * <p>
+ * Date: 2026/10/19
+ * Time: 01:10
+ *
+ * @author Rascal
+ */
+public interface ConfigValueListener<T> {
+
+    /**
+     * 配置参数值发生变化
+     *
+     * @param key      参数key
+     * @param oldValue 变更前的值
+     * @param newValue 变更后的值
+     */
+    void onChange(String key, T oldValue, T newValue);
+}
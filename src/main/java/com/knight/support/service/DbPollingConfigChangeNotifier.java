@@ -0,0 +1,105 @@
+package com.knight.support.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.knight.module.sys.entity.ConfigVersion;
+import com.knight.module.sys.service.ConfigVersionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于数据库版本表轮询的集群配置变更通知实现：
+ * publish递增sys_configversion表对应通道版本号，各节点每隔pollIntervalSeconds秒读取版本号，
+ * 发现其它节点产生的新版本则通知监听器，因此配置变更最多在一个轮询间隔内传播到所有节点
+ * <p>
+ * Date: 2026/10/19
+ * Time: 00:50
+ *
+ * @author Rascal
+ */
+public class DbPollingConfigChangeNotifier implements ConfigChangeNotifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(DbPollingConfigChangeNotifier.class);
+
+    public static final String CHANNEL_CONFIG_PROPERTY = "ConfigProperty";
+
+    /*当前节点标识，用于忽略本节点自身产生的变更*/
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    private ConfigVersionService configVersionService;
+
+    private final List<ConfigChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /*版本号轮询间隔秒数*/
+    private long pollIntervalSeconds = 5;
+
+    /*已处理的最新版本号*/
+    private volatile long lastVersionNo = -1;
+
+    private ScheduledExecutorService pollExecutor;
+
+    public void setConfigVersionService(ConfigVersionService configVersionService) {
+        this.configVersionService = configVersionService;
+    }
+
+    public void setPollIntervalSeconds(long pollIntervalSeconds) {
+        this.pollIntervalSeconds = pollIntervalSeconds;
+    }
+
+    /**
+     * 读取当前版本号并启动轮询，由spring-context.xml中bean定义的init-method调用
+     */
+    public void start() {
+        ConfigVersion configVersion = configVersionService.findByChannel(CHANNEL_CONFIG_PROPERTY);
+        lastVersionNo = configVersion == null ? 0 : configVersion.getVersionNo();
+        pollExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("config-change-poll-%d").setDaemon(true).build());
+        pollExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (Exception e) {
+                logger.warn("Poll config version failure", e);
+            }
+        }, pollIntervalSeconds, pollIntervalSeconds, TimeUnit.SECONDS);
+        logger.info("Config change polling started on node {} at version {}", NODE_ID, lastVersionNo);
+    }
+
+    public void stop() {
+        if (pollExecutor != null) {
+            pollExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void publish(String propKey, ConfigChangeListener publisher) {
+        // 本节点产生的版本由轮询时按节点标识忽略
+        configVersionService.increaseVersion(CHANNEL_CONFIG_PROPERTY, propKey, NODE_ID);
+    }
+
+    @Override
+    public void subscribe(ConfigChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    private void poll() {
+        ConfigVersion configVersion = configVersionService.findByChannel(CHANNEL_CONFIG_PROPERTY);
+        if (configVersion == null || configVersion.getVersionNo() <= lastVersionNo) {
+            return;
+        }
+        // 轮询间隔内可能合并了多次变更，只需通知一次刷新
+        boolean fromOtherNode = configVersion.getVersionNo() > lastVersionNo + 1 || !NODE_ID.equals(configVersion.getChangedNode());
+        lastVersionNo = configVersion.getVersionNo();
+        if (fromOtherNode) {
+            long changedTime = configVersion.getChangedTime() == null ? System.currentTimeMillis() : configVersion.getChangedTime();
+            for (ConfigChangeListener listener : listeners) {
+                listener.onConfigChange(configVersion.getPropKey(), changedTime);
+            }
+        }
+    }
+}
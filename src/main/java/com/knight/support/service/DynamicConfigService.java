@@ -1,26 +1,52 @@
 package com.knight.support.service;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.knight.core.context.ExtPropertyPlaceholderConfigurer;
-import com.knight.module.sys.entity.ConfigProperty;
+import com.knight.module.sys.entity.ConfigVersion;
+import com.knight.module.sys.service.ConfigPropertyChangeEvent;
 import com.knight.module.sys.service.ConfigPropertyService;
+import com.knight.module.sys.service.ConfigVersionService;
 import org.apache.commons.lang3.BooleanUtils;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
 /**
  * 基于数据库加载动态配置参数
  * 框架拓展属性加载：Spring除了从.properties加载属性数据
  * 并且数据库如果存在同名属性则优先取数据库的属性值覆盖配置文件的值
  * 为了避免意外的数据库配置导致系统崩溃，约定以cfg打头标识的参数表示可以被数据库参数覆写，其余的则不会覆盖文件定义的属性值
+ * <p>
+ * 数据库配置在启动时一次性加载为不可变快照，取值直接读内存不再查询数据库；
+ * 配置数据通过ConfigPropertyService变更提交后整体替换快照；另每隔config_refresh_interval_seconds秒读取配置版本号（sys_configversion），
+ * 版本号与当前快照加载时不同才重新加载，因此直接修改数据库配置数据后需同时递增版本号才会被定期刷新感知；
+ * 集群部署时本节点变更通过ConfigChangeNotifier广播，其它节点收到通知后刷新快照，并统计变更传播延迟
+ * <p>
+ * 类型化取值统一由参数句柄ConfigValue解析并持有，getInt/getBoolean等方法同样基于句柄，取值只是一次volatile读取，
+ * 快照替换时句柄统一重新解析，值有变化则通知句柄上注册的监听器
  * Date: 2015/11/26
  * Time: 22:07
  *
  * @author Rascal
  */
 @Component
-public class DynamicConfigService {
+public class DynamicConfigService implements ApplicationListener<ConfigPropertyChangeEvent>, ConfigChangeListener {
 
     private final static Logger logger = LoggerFactory.getLogger(DynamicConfigService.class);
 
@@ -30,6 +56,146 @@ public class DynamicConfigService {
     @Autowired
     private ConfigPropertyService configPropertyService;
 
+    @Autowired
+    private ConfigVersionService configVersionService;
+
+    @Autowired(required = false)
+    private ConfigChangeNotifier configChangeNotifier;
+
+    @Value("${config_refresh_interval_seconds:60}")
+    private long refreshIntervalSeconds;
+
+    /*当前生效的数据库配置快照，整体原子替换*/
+    private volatile ImmutableMap<String, String> snapshot = ImmutableMap.of();
+
+    /*当前快照加载时读取到的配置版本号*/
+    private volatile long loadedVersionNo = -1;
+
+    private ScheduledExecutorService refreshExecutor;
+
+    /*已创建的类型化参数句柄，key为类型:参数key:默认值*/
+    private final ConcurrentMap<String, ConfigValue<?>> configValues = new ConcurrentHashMap<>();
+
+    /*收到集群变更通知次数*/
+    private final AtomicLong propagationCount = new AtomicLong();
+
+    /*最近一次变更传播延迟毫秒数*/
+    private volatile long lastPropagationLagMillis;
+
+    /*最大变更传播延迟毫秒数*/
+    private final AtomicLong maxPropagationLagMillis = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        reload();
+        if (configChangeNotifier != null) {
+            configChangeNotifier.subscribe(this);
+        }
+        if (extPropertyPlaceholderConfigurer != null) {
+            extPropertyPlaceholderConfigurer.addReloadListener(this::invalidate);
+        }
+        if (refreshIntervalSeconds > 0) {
+            refreshExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("dynamic-config-refresh-%d").setDaemon(true).build());
+            refreshExecutor.scheduleWithFixedDelay(() -> {
+                try {
+                    refreshIfVersionChanged();
+                } catch (Exception e) {
+                    logger.warn("Refresh dynamic config failure", e);
+                }
+            }, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void onApplicationEvent(ConfigPropertyChangeEvent event) {
+        logger.info("Config property changed: {}, reload dynamic config", event.getPropKey());
+        reload();
+        if (configChangeNotifier != null) {
+            configChangeNotifier.publish(event.getPropKey(), this);
+        }
+    }
+
+    /**
+     * 收到其它节点配置变更通知，刷新本地快照并记录传播延迟
+     * 注意：传播延迟基于各节点系统时间计算，节点间时钟偏差会计入延迟
+     */
+    @Override
+    public void onConfigChange(String propKey, long changedTime) {
+        reload();
+        long lag = Math.max(System.currentTimeMillis() - changedTime, 0);
+        lastPropagationLagMillis = lag;
+        propagationCount.incrementAndGet();
+        long max;
+        while (lag > (max = maxPropagationLagMillis.get())) {
+            if (maxPropagationLagMillis.compareAndSet(max, lag)) {
+                break;
+            }
+        }
+        logger.info("Config property {} changed by other node, propagation lag {} ms", propKey, lag);
+    }
+
+    public long getPropagationCount() {
+        return propagationCount.get();
+    }
+
+    public long getLastPropagationLagMillis() {
+        return lastPropagationLagMillis;
+    }
+
+    public long getMaxPropagationLagMillis() {
+        return maxPropagationLagMillis.get();
+    }
+
+    /**
+     * 定期刷新：只读取配置版本号，与当前快照加载时的版本号不同才重新加载全部配置
+     */
+    private void refreshIfVersionChanged() {
+        if (readVersionNo() != loadedVersionNo) {
+            reload();
+        }
+    }
+
+    private long readVersionNo() {
+        ConfigVersion configVersion = configVersionService.findByChannel(DbPollingConfigChangeNotifier.CHANNEL_CONFIG_PROPERTY);
+        return configVersion == null ? 0 : configVersion.getVersionNo();
+    }
+
+    /**
+     * 从数据库重新加载配置，数据有变化时替换快照并重新解析参数句柄
+     * 版本号在加载数据之前读取，加载期间发生的变更会在下次定期刷新时被感知
+     */
+    public synchronized void reload() {
+        long versionNo = readVersionNo();
+        ImmutableMap<String, String> values = ImmutableMap.copyOf(configPropertyService.findAllSimpleValues());
+        loadedVersionNo = versionNo;
+        if (!values.equals(snapshot)) {
+            snapshot = values;
+            logger.info("Dynamic config snapshot reloaded with {} properties at version {}", values.size(), versionNo);
+            refreshConfigValues();
+        }
+    }
+
+    /**
+     * 重新解析全部参数句柄，一般用于Spring属性文件重新加载之后
+     */
+    public synchronized void invalidate() {
+        refreshConfigValues();
+    }
+
+    private void refreshConfigValues() {
+        for (ConfigValue<?> configValue : configValues.values()) {
+            configValue.refresh(lookup(configValue.getKey()));
+        }
+    }
+
     /**
      * 根据key获取对应动态参数值
      */
@@ -41,13 +207,23 @@ public class DynamicConfigService {
      * 根据key获取对应动态参数值， 如果没有则返回defaultValue
      */
     public String getString(String key, String defaultValue) {
+        String val = lookup(key);
+        if (val == null) {
+            logger.warn("Undefined config property for: {}", key);
+            return defaultValue;
+        } else {
+            return val.trim();
+        }
+    }
+
+    /**
+     * 按数据库快照优先、Spring属性文件其次的顺序查找原始参数值
+     */
+    private String lookup(String key) {
         String val = null;
         //cfg打头参数，首先从数据库取值
         if (key.startsWith("cfg")) {
-            ConfigProperty cfg = configPropertyService.findByPropKey(key);
-            if (cfg != null) {
-                val = cfg.getSimpleValue();
-            }
+            val = snapshot.get(key);
         }
         //未取到则继续从Spring属性文件定义取
         if (val == null) {
@@ -57,15 +233,79 @@ public class DynamicConfigService {
                 logger.warn("当前不是以ExtPropertyPlaceholderConfigurer扩展模式定义，因此无法加载获取Spring属性配置");
             }
         }
-        if (val == null) {
-            logger.warn("Undefined config property for: {}", key);
-            return defaultValue;
-        } else {
-            return val.trim();
+        return val;
+    }
+
+    public ConfigValue<String> stringValue(String key, String defaultValue) {
+        return configValue("string", key, value -> value, defaultValue);
+    }
+
+    public ConfigValue<Boolean> booleanValue(String key, boolean defaultValue) {
+        return configValue("boolean", key, BooleanUtils::toBoolean, defaultValue);
+    }
+
+    public ConfigValue<Integer> intValue(String key, int defaultValue) {
+        return configValue("int", key, Integer::valueOf, defaultValue);
+    }
+
+    public ConfigValue<Long> longValue(String key, long defaultValue) {
+        return configValue("long", key, Long::valueOf, defaultValue);
+    }
+
+    /**
+     * 时长参数句柄，参数值支持ms/s/m/h/d单位后缀，无单位按毫秒处理
+     */
+    public ConfigValue<Duration> durationValue(String key, Duration defaultValue) {
+        return configValue("duration", key, ConfigValue::parseDuration, defaultValue);
+    }
+
+    /**
+     * 容量参数句柄，参数值支持KB/MB/GB/TB单位后缀，解析为字节数
+     */
+    public ConfigValue<Long> sizeValue(String key, long defaultBytes) {
+        return configValue("size", key, ConfigValue::parseSize, defaultBytes);
+    }
+
+    /**
+     * 逗号分隔的列表参数句柄
+     */
+    public ConfigValue<List<String>> listValue(String key, List<String> defaultValue) {
+        return configValue("list", key, ConfigValue::parseList, defaultValue);
+    }
+
+    public <E extends Enum<E>> ConfigValue<E> enumValue(String key, Class<E> enumClass, E defaultValue) {
+        return configValue("enum:" + enumClass.getName(), key, value -> Enum.valueOf(enumClass, value), defaultValue);
+    }
+
+    /**
+     * 获取或创建类型化参数句柄，相同类型、key和默认值共享同一句柄
+     */
+    @SuppressWarnings("unchecked")
+    private <V> ConfigValue<V> configValue(String type, String key, Function<String, V> parser, V defaultValue) {
+        String handleKey = type + ":" + key + ":" + defaultValue;
+        ConfigValue<V> configValue = (ConfigValue<V>) configValues.get(handleKey);
+        if (configValue == null) {
+            // 与reload/invalidate互斥：句柄取值和注册在同一个快照下完成，避免取值后快照被替换而句柄尚未注册，停留在旧值
+            synchronized (this) {
+                configValue = (ConfigValue<V>) configValues.get(handleKey);
+                if (configValue == null) {
+                    configValue = new ConfigValue<>(key, parser, defaultValue, lookup(key));
+                    configValues.put(handleKey, configValue);
+                }
+            }
         }
+        return configValue;
     }
 
     public boolean getBoolean(String key, boolean defaultValue) {
-        return BooleanUtils.toBoolean(getString(key, String.valueOf(defaultValue)));
+        return booleanValue(key, defaultValue).get();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        return intValue(key, defaultValue).get();
+    }
+
+    public long getLong(String key, long defaultValue) {
+        return longValue(key, defaultValue).get();
     }
 }
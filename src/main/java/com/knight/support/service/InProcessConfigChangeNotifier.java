@@ -0,0 +1,33 @@
+package com.knight.support.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 进程内配置变更通知实现，publish时同步通知除发布方之外的所有已注册监听器，适用于单节点部署及测试
+ * <p>
+ * Date: 2026/10/19
+ * Time: 00:45
+ *
+ * @author Rascal
+ */
+public class InProcessConfigChangeNotifier implements ConfigChangeNotifier {
+
+    private final List<ConfigChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String propKey, ConfigChangeListener publisher) {
+        long now = System.currentTimeMillis();
+        for (ConfigChangeListener listener : listeners) {
+            // 发布方保存配置时已刷新过，避免重复加载
+            if (listener != publisher) {
+                listener.onConfigChange(propKey, now);
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(ConfigChangeListener listener) {
+        listeners.add(listener);
+    }
+}
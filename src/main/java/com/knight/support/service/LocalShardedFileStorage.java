@@ -0,0 +1,162 @@
+package com.knight.support.service;
+
+import com.knight.core.util.Digests;
+import com.knight.core.web.util.ServletUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 本地文件系统附件存储：按存储key的MD5摘要分shardLevels层目录，每层取shardWidth个十六进制字符，
+ * 即每层目录扇出为16^shardWidth，如2层x2字符对应256x256个目录，文件名为key摘要加原扩展名
+ * <p>
+ * shardLevels为0时直接以rootDir+key作为文件路径，与原有/upload/年/月/日目录结构一致，便于Nginx按URL直接访问静态文件；
+ * 启用分片后文件须通过ServletUtils.renderFileDownload输出。读取时如分片路径不存在会回退查找原有路径，已有文件无需迁移
+ * <p>
+ * Date: 2026/10/19
+ * Time: 11:20
+ *
+ * @author Rascal
+ */
+public class LocalShardedFileStorage implements AttachmentStorage {
+
+    /*存储根目录，为空取ServletUtils.getStaticFileUploadDir()*/
+    private String rootDir;
+
+    /*分片目录层数*/
+    private int shardLevels = 0;
+
+    /*每层分片目录名十六进制字符数*/
+    private int shardWidth = 2;
+
+    public void setRootDir(String rootDir) {
+        this.rootDir = StringUtils.removeEnd(StringUtils.trimToNull(rootDir), File.separator);
+    }
+
+    public void setShardLevels(int shardLevels) {
+        this.shardLevels = shardLevels;
+    }
+
+    public void setShardWidth(int shardWidth) {
+        this.shardWidth = shardWidth;
+    }
+
+    public String getRootDir() {
+        return rootDir != null ? rootDir : ServletUtils.getStaticFileUploadDir();
+    }
+
+    /**
+     * 存储key对应的写入文件路径
+     */
+    public File resolve(String key) {
+        if (shardLevels <= 0) {
+            return new File(getRootDir() + key);
+        }
+        String hash = Digests.md5(key);
+        StringBuilder sb = new StringBuilder(getRootDir()).append("/upload/shards");
+        for (int i = 0; i < shardLevels; i++) {
+            sb.append("/").append(hash, i * shardWidth, (i + 1) * shardWidth);
+        }
+        sb.append("/").append(hash);
+        String extension = StringUtils.substringAfterLast(StringUtils.substringAfterLast(key, "/"), ".");
+        if (StringUtils.isNotBlank(extension)) {
+            sb.append(".").append(extension);
+        }
+        return new File(sb.toString());
+    }
+
+    /**
+     * 存储key对应的已有文件，分片路径不存在则回退到原有未分片路径，都不存在返回null
+     */
+    private File locate(String key) {
+        File file = resolve(key);
+        if (file.isFile()) {
+            return file;
+        }
+        if (shardLevels > 0) {
+            File legacyFile = new File(getRootDir() + key);
+            if (legacyFile.isFile()) {
+                return legacyFile;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void put(String key, File source) throws IOException {
+        File file = resolve(key);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        File file = locate(key);
+        return file == null ? null : new FileInputStream(file);
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        File file = locate(key);
+        if (file == null) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public long transferTo(String key, long offset, long length, WritableByteChannel target) throws IOException {
+        File file = locate(key);
+        if (file == null) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return transfer(channel, offset, length, target);
+        }
+    }
+
+    /**
+     * 循环调用transferTo直到传输完成，单次transferTo可能只传输部分数据
+     */
+    public static long transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                break;
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+        return count - remaining;
+    }
+
+    @Override
+    public long length(String key) {
+        File file = locate(key);
+        return file == null ? -1 : file.length();
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return locate(key) != null;
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        File file = locate(key);
+        return file != null && Files.deleteIfExists(file.toPath());
+    }
+}
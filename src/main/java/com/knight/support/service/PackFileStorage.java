@@ -0,0 +1,393 @@
+package com.knight.support.service;
+
+import com.knight.core.web.util.ServletUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 包文件附件存储：把不超过smallFileThreshold的小文件依次追加写入大的包文件pack-00001.dat，
+ * 超过maxPackSize后切换到新的包文件，避免海量小文件耗尽inode以及单目录文件过多导致查找变慢；
+ * 大文件委托给largeFileStorage存储
+ * <p>
+ * 存储key到包文件位置的索引常驻内存，同时以追加方式写入索引日志pack.idx，启动时回放日志重建索引，
+ * 日志尾部因异常中断写入不完整的记录会被截掉。删除只追加删除记录，包文件中的数据空间不回收，可通过getGarbageBytes()评估是否需要离线重整
+ * <p>
+ * Date: 2026/10/19
+ * Time: 11:40
+ *
+ * @author Rascal
+ */
+public class PackFileStorage implements AttachmentStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackFileStorage.class);
+
+    private static final byte RECORD_PUT = 1;
+
+    private static final byte RECORD_DELETE = 2;
+
+    private static final String INDEX_FILE_NAME = "pack.idx";
+
+    /*存储根目录，为空取ServletUtils.getStaticFileUploadDir()，包文件位于其下/upload/packs目录*/
+    private String rootDir;
+
+    /*单个包文件最大字节数*/
+    private long maxPackSize = 1024L * 1024 * 1024;
+
+    /*写入包文件的小文件最大字节数*/
+    private long smallFileThreshold = 256 * 1024;
+
+    /*每次写入后是否同步刷盘*/
+    private boolean syncOnPut = true;
+
+    /*大文件存储*/
+    private AttachmentStorage largeFileStorage;
+
+    private final ConcurrentMap<String, PackEntry> index = new ConcurrentHashMap<>();
+
+    /*已打开的包文件只读通道，基于位置的transferTo读取线程安全，可共享*/
+    private final ConcurrentMap<Integer, FileChannel> readChannels = new ConcurrentHashMap<>();
+
+    /*已删除或被覆盖但仍占用包文件空间的字节数*/
+    private final AtomicLong garbageBytes = new AtomicLong();
+
+    /*索引加载及包文件打开完成标识，完成后读取路径不再进入同步块*/
+    private volatile boolean opened;
+
+    private File packDir;
+
+    private int currentPackId;
+
+    private FileChannel currentPack;
+
+    private FileOutputStream indexFileOutput;
+
+    private DataOutputStream indexOutput;
+
+    public void setRootDir(String rootDir) {
+        this.rootDir = StringUtils.removeEnd(StringUtils.trimToNull(rootDir), File.separator);
+    }
+
+    public void setMaxPackSize(long maxPackSize) {
+        this.maxPackSize = maxPackSize;
+    }
+
+    public void setSmallFileThreshold(long smallFileThreshold) {
+        this.smallFileThreshold = smallFileThreshold;
+    }
+
+    public void setSyncOnPut(boolean syncOnPut) {
+        this.syncOnPut = syncOnPut;
+    }
+
+    public void setLargeFileStorage(AttachmentStorage largeFileStorage) {
+        this.largeFileStorage = largeFileStorage;
+    }
+
+    /**
+     * 首次访问时加载索引并打开当前包文件，存储根目录依赖Web应用初始化因此不在Bean初始化阶段处理
+     * 以volatile标识双重检查，打开之后的读取不会与写入竞争同一把锁
+     */
+    private void ensureOpen() throws IOException {
+        if (opened) {
+            return;
+        }
+        synchronized (this) {
+            if (!opened) {
+                open();
+                opened = true;
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        File dir = new File((rootDir != null ? rootDir : ServletUtils.getStaticFileUploadDir()) + "/upload/packs");
+        Files.createDirectories(dir.toPath());
+        File indexFile = new File(dir, INDEX_FILE_NAME);
+        if (indexFile.exists()) {
+            long validLength = loadIndex(indexFile);
+            if (validLength < indexFile.length()) {
+                logger.warn("Truncate incomplete pack index records from {} to {} bytes", indexFile.length(), validLength);
+                try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+                    raf.setLength(validLength);
+                }
+            }
+        }
+        String[] packNames = dir.list((d, name) -> name.startsWith("pack-") && name.endsWith(".dat"));
+        for (String packName : packNames) {
+            currentPackId = Math.max(currentPackId, Integer.parseInt(StringUtils.substringBetween(packName, "pack-", ".dat")));
+        }
+        packDir = dir;
+        openPack(Math.max(currentPackId, 1));
+        indexFileOutput = new FileOutputStream(indexFile, true);
+        indexOutput = new DataOutputStream(indexFileOutput);
+        logger.info("Pack file storage opened at {} with {} entries", dir, index.size());
+    }
+
+    /**
+     * 回放索引日志重建内存索引，最后一条完整记录之后无法解析的内容（写入中断导致的半条记录、
+     * 不完整的UTF编码或未知记录类型）都视为残缺尾部，由调用方截断
+     *
+     * @return 完整记录的字节数
+     */
+    private long loadIndex(File indexFile) throws IOException {
+        long validLength = 0;
+        try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+             DataInputStream input = new DataInputStream(counting)) {
+            while (true) {
+                byte type = input.readByte();
+                if (type != RECORD_PUT && type != RECORD_DELETE) {
+                    logger.warn("Unknown pack index record type {} at {}", type, validLength);
+                    return validLength;
+                }
+                String key = input.readUTF();
+                PackEntry previous;
+                if (type == RECORD_PUT) {
+                    previous = index.put(key, new PackEntry(input.readInt(), input.readLong(), input.readLong()));
+                } else {
+                    previous = index.remove(key);
+                }
+                if (previous != null) {
+                    garbageBytes.addAndGet(previous.length);
+                }
+                validLength = counting.getByteCount();
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            return validLength;
+        }
+    }
+
+    private void openPack(int packId) throws IOException {
+        if (currentPack != null) {
+            currentPack.close();
+        }
+        currentPackId = packId;
+        currentPack = FileChannel.open(packFile(packId).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private File packFile(int packId) {
+        return new File(packDir, String.format("pack-%05d.dat", packId));
+    }
+
+    @Override
+    public void put(String key, File source) throws IOException {
+        long length = source.length();
+        if (length > smallFileThreshold && largeFileStorage != null) {
+            largeFileStorage.put(key, source);
+            removeEntry(key);
+            return;
+        }
+        ensureOpen();
+        synchronized (this) {
+            if (currentPack.size() > 0 && currentPack.size() + length > maxPackSize) {
+                openPack(currentPackId + 1);
+            }
+            long offset = currentPack.size();
+            try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+                long written = 0;
+                while (written < length) {
+                    long transferred = currentPack.transferFrom(input, offset + written, length - written);
+                    if (transferred <= 0) {
+                        throw new IOException("Unexpected end of file while packing: " + source);
+                    }
+                    written += transferred;
+                }
+            }
+            if (syncOnPut) {
+                currentPack.force(false);
+            }
+            indexOutput.writeByte(RECORD_PUT);
+            indexOutput.writeUTF(key);
+            indexOutput.writeInt(currentPackId);
+            indexOutput.writeLong(offset);
+            indexOutput.writeLong(length);
+            indexOutput.flush();
+            if (syncOnPut) {
+                indexFileOutput.getFD().sync();
+            }
+            PackEntry previous = index.put(key, new PackEntry(currentPackId, offset, length));
+            if (previous != null) {
+                garbageBytes.addAndGet(previous.length);
+            }
+        }
+        Files.deleteIfExists(source.toPath());
+        //同一key之前作为大文件保存过则删除旧的大文件，避免遗留无法访问的文件
+        if (largeFileStorage != null) {
+            largeFileStorage.delete(key);
+        }
+    }
+
+    /**
+     * 移除包文件中的索引项
+     *
+     * @return 索引项存在返回true
+     */
+    private boolean removeEntry(String key) throws IOException {
+        ensureOpen();
+        synchronized (this) {
+            PackEntry previous = index.remove(key);
+            if (previous == null) {
+                return false;
+            }
+            indexOutput.writeByte(RECORD_DELETE);
+            indexOutput.writeUTF(key);
+            indexOutput.flush();
+            if (syncOnPut) {
+                indexFileOutput.getFD().sync();
+            }
+            garbageBytes.addAndGet(previous.length);
+            return true;
+        }
+    }
+
+    private PackEntry findEntry(String key) {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            throw new IllegalStateException("Open pack file storage failure", e);
+        }
+        return index.get(key);
+    }
+
+    private FileChannel readChannel(int packId) throws IOException {
+        FileChannel channel = readChannels.get(packId);
+        if (channel == null) {
+            channel = FileChannel.open(packFile(packId).toPath(), StandardOpenOption.READ);
+            FileChannel existing = readChannels.putIfAbsent(packId, channel);
+            if (existing != null) {
+                channel.close();
+                channel = existing;
+            }
+        }
+        return channel;
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        PackEntry entry = findEntry(key);
+        if (entry == null) {
+            return largeFileStorage != null ? largeFileStorage.get(key) : null;
+        }
+        return get(key, 0, entry.length);
+    }
+
+    @Override
+    public InputStream get(String key, long offset, long length) throws IOException {
+        PackEntry entry = findEntry(key);
+        if (entry == null) {
+            return largeFileStorage != null ? largeFileStorage.get(key, offset, length) : null;
+        }
+        long rangeLength = rangeLength(entry, offset, length);
+        //独立通道读取，避免共享通道的position相互影响
+        FileChannel channel = FileChannel.open(packFile(entry.packId).toPath(), StandardOpenOption.READ);
+        channel.position(entry.offset + offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), rangeLength);
+    }
+
+    @Override
+    public long transferTo(String key, long offset, long length, WritableByteChannel target) throws IOException {
+        PackEntry entry = findEntry(key);
+        if (entry == null) {
+            return largeFileStorage != null ? largeFileStorage.transferTo(key, offset, length, target) : 0;
+        }
+        return LocalShardedFileStorage.transfer(readChannel(entry.packId), entry.offset + offset,
+                rangeLength(entry, offset, length), target);
+    }
+
+    /**
+     * 读取区间限定在条目范围内：包文件中条目前后紧邻其它文件内容，区间越界会读到其它文件，
+     * BoundedInputStream的上限为负数时也表示不限制，因此起始位置越界直接拒绝，长度截断到不小于0
+     */
+    private static long rangeLength(PackEntry entry, long offset, long length) {
+        if (offset < 0 || offset > entry.length) {
+            throw new IllegalArgumentException("Offset " + offset + " out of range [0, " + entry.length + "]");
+        }
+        return Math.max(0, Math.min(length, entry.length - offset));
+    }
+
+    @Override
+    public long length(String key) {
+        PackEntry entry = findEntry(key);
+        if (entry == null) {
+            return largeFileStorage != null ? largeFileStorage.length(key) : -1;
+        }
+        return entry.length;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return findEntry(key) != null || (largeFileStorage != null && largeFileStorage.exists(key));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        boolean deleted = removeEntry(key);
+        if (largeFileStorage != null) {
+            deleted = largeFileStorage.delete(key) || deleted;
+        }
+        return deleted;
+    }
+
+    public int getEntryCount() {
+        return index.size();
+    }
+
+    /**
+     * 已删除或被覆盖但仍占用包文件空间的字节数
+     */
+    public long getGarbageBytes() {
+        return garbageBytes.get();
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        for (FileChannel channel : readChannels.values()) {
+            IOUtils.closeQuietly(channel);
+        }
+        readChannels.clear();
+        IOUtils.closeQuietly(currentPack);
+        IOUtils.closeQuietly(indexOutput);
+    }
+
+    /**
+     * 包文件索引项
+     */
+    private static class PackEntry {
+
+        private final int packId;
+
+        private final long offset;
+
+        private final long length;
+
+        private PackEntry(int packId, long offset, long length) {
+            this.packId = packId;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.knight.core.audit.envers;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Date: 2026/10/19
+ * Time: 21:50
+ *
+ * @author Rascal
+ */
+public class RevisionArchiveFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Map<String, Object>> rowGroup(long fromId, long toId) {
+        List<Map<String, Object>> rows = Lists.newArrayList();
+        for (long id = fromId; id <= toId; id++) {
+            Map<String, Object> row = Maps.newLinkedHashMap();
+            row.put("id", id);
+            row.put("REV", id * 10);
+            row.put("name", "name-" + id);
+            //部分行缺少的列读取为null
+            if (id % 2 == 0) {
+                row.put("remark", "even");
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    @Test
+    public void readWrittenRowsById() throws IOException {
+        File file = folder.newFile("archive.gz");
+        try (RevisionArchiveFile.Writer writer = RevisionArchiveFile.create(file, "id")) {
+            writer.writeRowGroup(rowGroup(1, 10));
+            writer.writeRowGroup(rowGroup(11, 20));
+            writer.writeRowGroup(rowGroup(5, 6));
+            writer.close();
+            assertEquals(22, writer.getRowCount());
+            assertEquals(Long.valueOf(1), writer.getMinKey());
+            assertEquals(Long.valueOf(20), writer.getMaxKey());
+        }
+
+        List<Map<String, Object>> rows = RevisionArchiveFile.read(file, "id", 15L);
+        assertEquals(1, rows.size());
+        assertEquals(150L, rows.get(0).get("REV"));
+        assertEquals("name-15", rows.get(0).get("name"));
+        assertNull(rows.get(0).get("remark"));
+        assertTrue(rows.get(0).containsKey("remark"));
+
+        //跨行组的同一主键全部返回，字符串形式的主键同样匹配
+        rows = RevisionArchiveFile.read(file, "id", "6");
+        assertEquals(2, rows.size());
+        assertEquals("even", rows.get(1).get("remark"));
+
+        assertTrue(RevisionArchiveFile.read(file, "id", 21L).isEmpty());
+    }
+
+    @Test
+    public void keepNoFileKeyRangeForNonNumericIds() throws IOException {
+        File file = folder.newFile("archive.gz");
+        try (RevisionArchiveFile.Writer writer = RevisionArchiveFile.create(file, "id")) {
+            Map<String, Object> row = Maps.newLinkedHashMap();
+            row.put("id", "a3f0");
+            row.put("REV", 1L);
+            writer.writeRowGroup(Lists.newArrayList(row, Maps.newLinkedHashMap(row)));
+            writer.close();
+            assertNull(writer.getMinKey());
+            assertNull(writer.getMaxKey());
+        }
+        assertEquals(2, RevisionArchiveFile.read(file, "id", "a3f0").size());
+        assertTrue(RevisionArchiveFile.read(file, "id", "b").isEmpty());
+    }
+
+    @Test
+    public void keepColumnTypes() throws IOException {
+        Timestamp timestamp = new Timestamp(1792300000123L);
+        timestamp.setNanos(123456789);
+        String longText = StringUtils.repeat("审计", 40000);
+        Map<String, Object> first = Maps.newLinkedHashMap();
+        first.put("id", 1L);
+        first.put("amount", new BigDecimal("12345678901234567890.0100"));
+        first.put("updated", timestamp);
+        first.put("enabled", Boolean.TRUE);
+        first.put("remark", longText);
+        first.put("data", new byte[]{1, 2, 3});
+        first.put("mixed", 7);
+        Map<String, Object> second = Maps.newLinkedHashMap();
+        second.put("id", 2L);
+        second.put("mixed", "seven");
+
+        File file = folder.newFile("archive.gz");
+        try (RevisionArchiveFile.Writer writer = RevisionArchiveFile.create(file, "id")) {
+            writer.writeRowGroup(Lists.newArrayList(first, second));
+        }
+
+        Map<String, Object> row = RevisionArchiveFile.read(file, "id", 1L).get(0);
+        assertEquals(1L, row.get("id"));
+        assertEquals(new BigDecimal("12345678901234567890.0100"), row.get("amount"));
+        assertEquals(timestamp, row.get("updated"));
+        assertEquals(123456789, ((Timestamp) row.get("updated")).getNanos());
+        assertEquals(Boolean.TRUE, row.get("enabled"));
+        assertEquals(longText, row.get("remark"));
+        assertArrayEquals(new byte[]{1, 2, 3}, (byte[]) row.get("data"));
+        //同一列类型不一致时整列按字符串保存
+        assertEquals("7", row.get("mixed"));
+        assertEquals("seven", RevisionArchiveFile.read(file, "id", 2L).get(0).get("mixed"));
+
+        //只读取指定列
+        final List<Object> ids = Lists.newArrayList();
+        RevisionArchiveFile.readColumns(file, Collections.singleton("id"), new RevisionArchiveFile.RowGroupHandler() {
+            @Override
+            public void handle(Map<String, Object[]> columns, int rowCount) {
+                assertEquals(1, columns.size());
+                ids.addAll(Arrays.asList(columns.get("id")));
+            }
+        });
+        assertEquals(Lists.<Object>newArrayList(1L, 2L), ids);
+    }
+}
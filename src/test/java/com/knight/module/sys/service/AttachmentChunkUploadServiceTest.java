@@ -0,0 +1,250 @@
+package com.knight.module.sys.service;
+
+import com.knight.core.context.SpringContextHolder;
+import com.knight.core.exception.ValidationException;
+import com.knight.core.util.Digests;
+import com.knight.core.util.Encodes;
+import com.knight.module.sys.entity.AttachmentFile;
+import com.knight.support.service.AttachmentStorage;
+import com.knight.support.service.DynamicConfigService;
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Date: 2026/10/19
+ * Time: 21:40
+ *
+ * @author Rascal
+ */
+public class AttachmentChunkUploadServiceTest {
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    private static final int CHUNK_SIZE = 4;
+
+    private AttachmentChunkUploadService service;
+
+    /*模拟存储中保存的文件内容*/
+    private byte[] stored;
+
+    @BeforeClass
+    public static void setUpContext() {
+        DynamicConfigService dynamicConfigService = new DynamicConfigService() {
+            @Override
+            public String getString(String key) {
+                return "write_upload_file_dir".equals(key) ? folder.getRoot().getPath() : null;
+            }
+
+            @Override
+            public boolean getBoolean(String key, boolean defaultValue) {
+                return defaultValue;
+            }
+        };
+        StaticApplicationContext applicationContext = new StaticApplicationContext();
+        applicationContext.getBeanFactory().registerSingleton("dynamicConfigService", dynamicConfigService);
+        applicationContext.refresh();
+        SpringContextHolder.setApplicationContext(applicationContext);
+    }
+
+    @AfterClass
+    public static void tearDownContext() {
+        SpringContextHolder.setApplicationContext(null);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        AttachmentStorage attachmentStorage = new CapturingStorage();
+        AttachmentFileService attachmentFileService = new AttachmentFileService() {
+            @Override
+            public AttachmentFile save(AttachmentFile entity) {
+                return entity;
+            }
+        };
+
+        service = new AttachmentChunkUploadService();
+        ReflectionTestUtils.setField(service, "attachmentStorage", attachmentStorage);
+        ReflectionTestUtils.setField(service, "attachmentFileService", attachmentFileService);
+        ReflectionTestUtils.setField(service, "maxChunkSize", 1024L);
+        ReflectionTestUtils.setField(service, "maxFileSize", 1024L);
+        ReflectionTestUtils.setField(service, "maxSessionCount", 2);
+        ReflectionTestUtils.setField(service, "expireMinutes", 60L);
+        stored = null;
+    }
+
+    private void writeChunk(String sessionId, int chunkIndex, byte[] data) {
+        service.writeChunk(sessionId, chunkIndex, new ByteArrayInputStream(data), Encodes.encodeHex(Digests.md5(data)));
+    }
+
+    private byte[] chunk(int chunkIndex) {
+        int from = chunkIndex * CHUNK_SIZE;
+        return Arrays.copyOfRange(CONTENT, from, Math.min(CONTENT.length, from + CHUNK_SIZE));
+    }
+
+    @Test
+    public void failedRetryClearsReceivedChunk() {
+        String sessionId = service.createSession("a.txt", CONTENT.length, CHUNK_SIZE, null).getId();
+        for (int i = 0; i < 3; i++) {
+            writeChunk(sessionId, i, chunk(i));
+        }
+        assertEquals(0, service.getSession(sessionId).getMissingChunkCount());
+
+        //重传分片1时内容损坏，摘要校验失败后该分片不能再视为已接收
+        byte[] corrupted = "xxxx".getBytes(StandardCharsets.UTF_8);
+        try {
+            service.writeChunk(sessionId, 1, new ByteArrayInputStream(corrupted), Encodes.encodeHex(Digests.md5(chunk(1))));
+            fail("Corrupted chunk should be rejected");
+        } catch (ValidationException e) {
+            //expected
+        }
+        assertEquals(Arrays.asList(0, 2), service.getSession(sessionId).getReceivedChunks());
+        try {
+            service.complete(sessionId, null);
+            fail("Upload with missing chunk should not complete");
+        } catch (ValidationException e) {
+            //expected
+        }
+
+        writeChunk(sessionId, 1, chunk(1));
+        AttachmentFile attachmentFile = service.complete(sessionId, Encodes.encodeHex(Digests.sha1(CONTENT)));
+        assertEquals(CONTENT.length, attachmentFile.getFileLength().intValue());
+        assertArrayEquals(CONTENT, stored);
+        assertEquals(0, service.getSessionCount());
+    }
+
+    @Test
+    public void rejectChunksOnceCompleting() {
+        String sessionId = service.createSession("a.txt", CONTENT.length, CHUNK_SIZE, null).getId();
+        for (int i = 0; i < 3; i++) {
+            writeChunk(sessionId, i, chunk(i));
+        }
+        //摘要校验失败时会话已进入完成阶段，之后的分片写入和重复完成都被拒绝
+        try {
+            service.complete(sessionId, Encodes.encodeHex(Digests.sha1(chunk(0))));
+            fail("Digest mismatch should be rejected");
+        } catch (ValidationException e) {
+            //expected
+        }
+        try {
+            writeChunk(sessionId, 0, chunk(0));
+            fail("Completed session should not accept chunks");
+        } catch (ValidationException e) {
+            //expected
+        }
+        assertEquals(0, service.getSessionCount());
+    }
+
+    @Test
+    public void releaseSessionSlotOnAbortAndComplete() {
+        for (int round = 0; round < 3; round++) {
+            String first = service.createSession("a.txt", CONTENT.length, CHUNK_SIZE, null).getId();
+            String second = service.createSession("b.txt", CONTENT.length, CHUNK_SIZE, null).getId();
+            service.abort(first);
+            for (int i = 0; i < 3; i++) {
+                writeChunk(second, i, chunk(i));
+            }
+            service.complete(second, null);
+        }
+        assertEquals(0, service.getSessionCount());
+    }
+
+    @Test
+    public void rejectOversizedChunk() {
+        String sessionId = service.createSession("a.txt", CONTENT.length, CHUNK_SIZE, null).getId();
+        try {
+            service.writeChunk(sessionId, 2, new ByteArrayInputStream(chunk(0)), null);
+            fail("Chunk longer than expected should be rejected");
+        } catch (ValidationException e) {
+            //expected
+        }
+        assertEquals(Collections.<Integer>emptyList(), service.getSession(sessionId).getReceivedChunks());
+        service.abort(sessionId);
+    }
+
+    @Test
+    public void limitFileSizeAndSessionCount() {
+        try {
+            service.createSession("large.bin", 2048, CHUNK_SIZE, null);
+            fail("File larger than limit should be rejected");
+        } catch (ValidationException e) {
+            //expected
+        }
+        String first = service.createSession("a.txt", CONTENT.length, CHUNK_SIZE, null).getId();
+        String second = service.createSession("b.txt", CONTENT.length, CHUNK_SIZE, null).getId();
+        try {
+            service.createSession("c.txt", CONTENT.length, CHUNK_SIZE, null);
+            fail("Session count over limit should be rejected");
+        } catch (ValidationException e) {
+            //expected
+        }
+        service.abort(first);
+        service.abort(second);
+        assertFalse(service.getSessionCount() > 0);
+    }
+
+    /**
+     * 记录最近一次保存内容的存储实现
+     */
+    private class CapturingStorage implements AttachmentStorage {
+
+        @Override
+        public void put(String key, File source) throws IOException {
+            stored = FileUtils.readFileToByteArray(source);
+        }
+
+        @Override
+        public InputStream get(String key) throws IOException {
+            return stored == null ? null : new ByteArrayInputStream(stored);
+        }
+
+        @Override
+        public InputStream get(String key, long offset, long length) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferTo(String key, long offset, long length, WritableByteChannel target) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long length(String key) {
+            return stored == null ? -1 : stored.length;
+        }
+
+        @Override
+        public boolean exists(String key) {
+            return stored != null;
+        }
+
+        @Override
+        public boolean delete(String key) throws IOException {
+            boolean existed = stored != null;
+            stored = null;
+            return existed;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.knight.support.service;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Date: 2026/10/19
+ * Time: 21:30
+ *
+ * @author Rascal
+ */
+public class PackFileStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PackFileStorage storage;
+
+    @Before
+    public void setUp() {
+        storage = createStorage();
+    }
+
+    @After
+    public void tearDown() {
+        storage.close();
+    }
+
+    private PackFileStorage createStorage() {
+        PackFileStorage packFileStorage = new PackFileStorage();
+        packFileStorage.setRootDir(folder.getRoot().getPath());
+        packFileStorage.setSyncOnPut(false);
+        return packFileStorage;
+    }
+
+    private File indexFile() {
+        return new File(folder.getRoot(), "upload/packs/pack.idx");
+    }
+
+    private File source(String content) throws IOException {
+        File file = folder.newFile();
+        FileUtils.writeStringToFile(file, content, StandardCharsets.UTF_8.name());
+        return file;
+    }
+
+    private String read(PackFileStorage packFileStorage, String key) throws IOException {
+        try (InputStream input = packFileStorage.get(key)) {
+            return input == null ? null : IOUtils.toString(input, StandardCharsets.UTF_8.name());
+        }
+    }
+
+    @Test
+    public void replayIndexAfterReopen() throws IOException {
+        storage.put("a", source("alpha"));
+        storage.put("b", source("bravo"));
+        storage.delete("a");
+        storage.close();
+
+        storage = createStorage();
+        assertFalse(storage.exists("a"));
+        assertEquals("bravo", read(storage, "b"));
+        assertEquals(1, storage.getEntryCount());
+        assertEquals(5, storage.getGarbageBytes());
+    }
+
+    @Test
+    public void truncateTornIndexTailOnReplay() throws IOException {
+        storage.put("a", source("alpha"));
+        storage.put("b", source("bravo"));
+        storage.close();
+        long validLength = indexFile().length();
+
+        //模拟写入索引记录中途进程中断：记录类型和key已写入，位置信息缺失
+        try (FileOutputStream output = new FileOutputStream(indexFile(), true)) {
+            output.write(new byte[]{1, 0, 1, 'c', 0, 0});
+        }
+
+        storage = createStorage();
+        assertEquals("alpha", read(storage, "a"));
+        assertEquals("bravo", read(storage, "b"));
+        assertFalse(storage.exists("c"));
+        assertEquals(validLength, indexFile().length());
+
+        //截断后追加的记录在下次回放时仍然完整
+        storage.put("c", source("charlie"));
+        storage.close();
+        storage = createStorage();
+        assertEquals("charlie", read(storage, "c"));
+        assertEquals(3, storage.getEntryCount());
+    }
+
+    @Test
+    public void truncateUndecodableIndexTail() throws IOException {
+        storage.put("a", source("alpha"));
+        storage.close();
+        long validLength = indexFile().length();
+
+        //未知记录类型及不完整的UTF编码都按残缺尾部截断
+        try (FileOutputStream output = new FileOutputStream(indexFile(), true)) {
+            output.write(new byte[]{1, 0, 2, (byte) 0xC3, 0x28});
+        }
+        storage = createStorage();
+        assertEquals("alpha", read(storage, "a"));
+        assertEquals(validLength, indexFile().length());
+        storage.close();
+
+        try (FileOutputStream output = new FileOutputStream(indexFile(), true)) {
+            output.write(new byte[]{9, 0, 1, 'x'});
+        }
+        storage = createStorage();
+        assertEquals("alpha", read(storage, "a"));
+        assertEquals(validLength, indexFile().length());
+    }
+
+    @Test
+    public void limitRangeReadsToEntry() throws IOException {
+        storage.put("a", source("alpha"));
+        storage.put("b", source("bravo"));
+        try (InputStream input = storage.get("a", 3, 100)) {
+            assertEquals("ha", IOUtils.toString(input, StandardCharsets.UTF_8.name()));
+        }
+        try (InputStream input = storage.get("a", 5, 10)) {
+            assertEquals("", IOUtils.toString(input, StandardCharsets.UTF_8.name()));
+        }
+        try (InputStream input = storage.get("a", 1, -1)) {
+            assertEquals("", IOUtils.toString(input, StandardCharsets.UTF_8.name()));
+        }
+        try {
+            storage.get("a", 6, 10);
+            fail("Offset beyond entry should be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+        try {
+            storage.transferTo("a", -1, 10, Channels.newChannel(new ByteArrayOutputStream()));
+            fail("Negative offset should be rejected");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void smallPutDeletesPreviousLargeCopy() throws IOException {
+        RecordingStorage largeFileStorage = new RecordingStorage();
+        storage.setLargeFileStorage(largeFileStorage);
+        storage.put("a", source("alpha"));
+        assertEquals(1, largeFileStorage.deletedKeys.size());
+        assertEquals("a", largeFileStorage.deletedKeys.get(0));
+        assertTrue(storage.exists("a"));
+    }
+
+    /**
+     * 只记录删除调用的大文件存储
+     */
+    private static class RecordingStorage implements AttachmentStorage {
+
+        private final List<String> deletedKeys = new ArrayList<String>();
+
+        @Override
+        public void put(String key, File source) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InputStream get(String key) throws IOException {
+            return null;
+        }
+
+        @Override
+        public InputStream get(String key, long offset, long length) throws IOException {
+            return null;
+        }
+
+        @Override
+        public long transferTo(String key, long offset, long length, WritableByteChannel target) throws IOException {
+            return 0;
+        }
+
+        @Override
+        public long length(String key) {
+            return -1;
+        }
+
+        @Override
+        public boolean exists(String key) {
+            return false;
+        }
+
+        @Override
+        public boolean delete(String key) throws IOException {
+            deletedKeys.add(key);
+            return false;
+        }
+    }
+}